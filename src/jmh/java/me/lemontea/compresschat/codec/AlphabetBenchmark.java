@@ -0,0 +1,58 @@
+package me.lemontea.compresschat.codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+// Measures the base-N conversion alone, on random payloads of the sizes a compressor would produce.
+@State(Scope.Benchmark)
+public class AlphabetBenchmark {
+
+    @Param({ "10", "100", "1000", "4096", "16384" })
+    public int payloadLength;
+
+    @Param({ "MAX_DENSITY", "TWO_BYTE", "ASCII" })
+    public String profile;
+
+    private Alphabet alphabet;
+
+    private BigInteger payload;
+    private String encodedPayload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        alphabet = AlphabetProfile.valueOf(profile).alphabet();
+
+        byte[] bytes = new byte[payloadLength];
+
+        new Random(payloadLength).nextBytes(bytes);
+
+        bytes[0] = 1;
+
+        payload = new BigInteger(1, bytes);
+        encodedPayload = alphabet.encode(payload);
+    }
+
+    @Benchmark
+    public String encode() {
+        return alphabet.encode(payload);
+    }
+
+    @Benchmark
+    public BigInteger decode() {
+        return alphabet.decode(encodedPayload);
+    }
+
+    // Validation and mapping alone, which is all a malformed part costs.
+    @Benchmark
+    public int[] toDigits() {
+        return alphabet.toDigits(encodedPayload, 0, encodedPayload.length());
+    }
+
+}
@@ -0,0 +1,43 @@
+package me.lemontea.compresschat.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+final class ChatCorpus {
+
+    private static final String CORPUS_PATH = "/chat-corpus.txt";
+
+    private static final List<String> LINES = load();
+
+    private ChatCorpus() {}
+
+    // Joins corpus lines until the message reaches the requested length, so every size contains real chat text.
+    static String message(int length) {
+        StringBuilder result = new StringBuilder(length + 1);
+
+        for (int i = 0; result.length() < length; i++) {
+            if (!result.isEmpty())
+                result.append(' ');
+
+            result.append(LINES.get(i % LINES.size()));
+        }
+
+        result.setLength(length);
+
+        return result.toString();
+    }
+
+    private static List<String> load() {
+        try (InputStream in = ChatCorpus.class.getResourceAsStream(CORPUS_PATH)) {
+            if (in == null)
+                throw new IllegalStateException("Missing chat corpus!");
+
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().filter(line -> !line.isBlank()).toList();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load chat corpus!", e);
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package me.lemontea.compresschat.codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Benchmark)
+public class MessageCodecBenchmark {
+
+    // Deflate and Brotli on their own, since the adaptive choice of compressor and level keeps exploring between iterations.
+    @Param({ "1", "2" })
+    public byte compressorId;
+
+    @Param({ "10", "100", "1000", "4096", "16384" })
+    public int messageLength;
+
+    private MessageCodec codec;
+
+    private String message;
+    private String encodedMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Without a decode cache, so decodeMessage measures decoding rather than a map lookup.
+        codec = MessageCodec.createSingleCompressorCodec(compressorId, 0);
+
+        message = "$!" + ChatCorpus.message(messageLength) + "!$";
+        encodedMessage = codec.encodeMessage(message);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        codec.close();
+    }
+
+    @Benchmark
+    public String encodeMessage() {
+        return codec.encodeMessage(message);
+    }
+
+    @Benchmark
+    public String decodeMessage() {
+        return codec.decodeMessage(encodedMessage);
+    }
+
+}
@@ -0,0 +1,64 @@
+package me.lemontea.compresschat.codec;
+
+import me.lemontea.compresschat.codec.compressor.BrotliCompressor;
+import me.lemontea.compresschat.codec.compressor.CompressionDictionary;
+import me.lemontea.compresschat.codec.compressor.DeflateCompressor;
+import me.lemontea.compresschat.codec.compressor.StoredCompressor;
+import me.lemontea.compresschat.codec.compressor.ZstdCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Benchmark)
+public class StringCompressorBenchmark {
+
+    @Param({ "stored", "deflate", "brotli", "zstd", "deflate-dict", "brotli-dict", "zstd-dict" })
+    public String compressorName;
+
+    @Param({ "10", "100", "1000", "4096", "16384" })
+    public int messageLength;
+
+    private MessageCodec.StringCompressor compressor;
+
+    private String message;
+    private byte[] compressed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] chatDictionary = CompressionDictionary.load(CompressionDictionary.CHAT_PROVISIONAL);
+
+        compressor = switch (compressorName) {
+            case "stored" -> new StoredCompressor();
+            case "deflate" -> new DeflateCompressor();
+            case "brotli" -> new BrotliCompressor();
+            case "zstd" -> new ZstdCompressor();
+            case "deflate-dict" -> new DeflateCompressor(chatDictionary);
+            case "brotli-dict" -> new BrotliCompressor(chatDictionary);
+            case "zstd-dict" -> new ZstdCompressor(chatDictionary);
+            default -> throw new IllegalArgumentException("Unknown compressor " + compressorName + "!");
+        };
+
+        message = ChatCorpus.message(messageLength);
+        compressed = compressor.compress(message);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        compressor.close();
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return compressor.compress(message);
+    }
+
+    @Benchmark
+    public String decompress() {
+        return compressor.decompress(compressed, 0);
+    }
+
+}
@@ -0,0 +1,243 @@
+package me.lemontea.compresschat;
+
+import me.lemontea.compresschat.codec.MessageCodec;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.text.ClickEvent;
+import net.minecraft.text.HoverEvent;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/*
+ * Decodes incoming chat off the client thread.
+ *
+ * The returned text is a mutable placeholder that ends up embedded (by reference) in the
+ * decorated chat line, so once decoding finishes its contents are swapped and the chat
+ * HUD is re-laid out. The chat line keeps its original position, so ordering is preserved.
+ *
+ * Beyond the in-flight cap, decodes wait in a queue behind their placeholders and are started as
+ * earlier ones finish; nothing is ever decoded on the client thread just because of a burst. Once
+ * the queue backs up, a freed slot takes a whole batch of it, which the codec decodes in parallel.
+ * Messages over the decode budget, or arriving while the queue is full, are deferred: they stay
+ * a placeholder until clicked.
+ *
+ * Messages with stream parts can't be deferred, as a stream has to see its messages in order. They're
+ * queued like any other, but never decoded alongside earlier stream messages of the same sender, and
+ * skipped when over the budget, which leaves the sender's stream broken until its next keyframe.
+ */
+public final class AsyncMessageDecoder {
+
+    public static final String DECODE_DEFERRED_COMMAND = "compresschat decode";
+
+    private static final Text PLACEHOLDER = Text.literal("[decoding...]").formatted(Formatting.GRAY, Formatting.ITALIC);
+
+    private static final int MAX_DEFERRED_MESSAGES = 256;
+
+    private static final int MAX_QUEUED_DECODES = 256;
+
+    private static final int MIN_BATCH_SIZE = 8;
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private final MessageCodec codec;
+    private final Executor executor;
+
+    private final Semaphore inFlightDecodes;
+
+    private final DecodeBudget budget;
+
+    // Only accessed from the client thread.
+    private final LinkedHashMap<Integer, PendingMessage> deferredMessages = new LinkedHashMap<>();
+    private final Queue<PendingMessage> queuedDecodes = new ArrayDeque<>();
+
+    // Senders with stream messages being decoded.
+    private final Set<String> streamsInFlight = new HashSet<>();
+
+    private int nextDeferredId;
+
+    public AsyncMessageDecoder(MessageCodec codec, Executor executor, int maxInFlightDecodes, DecodeBudget budget) {
+        this.codec = codec;
+        this.executor = executor;
+        this.budget = budget;
+
+        inFlightDecodes = new Semaphore(maxInFlightDecodes);
+    }
+
+    public Text decode(String msg) {
+        return decode(msg, null);
+    }
+
+    public Text decode(String msg, String conversation) {
+        if (!codec.hasCompressedParts(msg))
+            return Text.literal(msg);
+
+        boolean stream = codec.hasStreamParts(msg);
+
+        DecodeBudget.Reservation reservation = budget.tryReserve(conversation, codec.getCompressedContentsLength(msg));
+
+        if (reservation == null || queuedDecodes.size() >= MAX_QUEUED_DECODES)
+            return stream ? skip() : defer(msg, conversation);
+
+        MutableText placeholder = Text.empty().append(PLACEHOLDER);
+
+        queuedDecodes.add(new PendingMessage(msg, conversation, stream, reservation, placeholder));
+        startQueuedDecodes();
+
+        return placeholder;
+    }
+
+    // Decodes a deferred message regardless of the budget, as the player asked for it.
+    public boolean decodeDeferred(int id) {
+        PendingMessage deferred = deferredMessages.remove(id);
+
+        if (deferred == null)
+            return false;
+
+        replace(deferred.placeholder(), PLACEHOLDER);
+
+        // Queued even if the queue is full, as there's at most one of these per click.
+        queuedDecodes.add(deferred);
+        startQueuedDecodes();
+
+        return true;
+    }
+
+    public void onTick() {
+        budget.onTick();
+    }
+
+    // Decoding a later message of the stream would run into the gap this leaves, which drops the stream on its own.
+    private static Text skip() {
+        return Text.literal("[compressed message skipped]").styled(style -> style
+                .withColor(Formatting.GRAY)
+                .withItalic(true)
+                .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("Skipped because of too many compressed messages")))
+        );
+    }
+
+    private Text defer(String msg, String conversation) {
+        int id = nextDeferredId++;
+
+        MutableText placeholder = Text.empty().append(Text.literal("[compressed message, click to decode]").styled(style -> style
+                .withColor(Formatting.GRAY)
+                .withItalic(true)
+                .withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/" + DECODE_DEFERRED_COMMAND + " " + id))
+                .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("Skipped because of too many compressed messages")))
+        ));
+
+        deferredMessages.put(id, new PendingMessage(msg, conversation, false, null, placeholder));
+
+        Iterator<Map.Entry<Integer, PendingMessage>> iterator = deferredMessages.entrySet().iterator();
+
+        while (deferredMessages.size() > MAX_DEFERRED_MESSAGES && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+
+        return placeholder;
+    }
+
+    // Hands queued decodes over to the executor, in arrival order, while there are free in-flight slots.
+    // The queue waits while its head continues a stream that's still being decoded.
+    private void startQueuedDecodes() {
+        while (!queuedDecodes.isEmpty() && !waitsForStream(queuedDecodes.peek()) && inFlightDecodes.tryAcquire()) {
+            int batchSize = (queuedDecodes.size() >= MIN_BATCH_SIZE) ? Math.min(queuedDecodes.size(), MAX_BATCH_SIZE) : 1;
+
+            List<PendingMessage> batch = new ArrayList<>(batchSize);
+            Set<String> batchStreams = new HashSet<>();
+
+            // The codec decodes the stream messages of a batch one by one, in order.
+            while (batch.size() < batchSize && !waitsForStream(queuedDecodes.peek())) {
+                PendingMessage queued = queuedDecodes.poll();
+
+                if (queued.stream())
+                    batchStreams.add(queued.conversation());
+
+                batch.add(queued);
+            }
+
+            streamsInFlight.addAll(batchStreams);
+
+            try {
+                CompletableFuture.supplyAsync(() -> decodeBatch(batch), executor).whenComplete((decoded, e) -> {
+                    inFlightDecodes.release();
+
+                    Throwable failure = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+
+                    MinecraftClient.getInstance().execute(() -> {
+                        streamsInFlight.removeAll(batchStreams);
+
+                        for (int i = 0; i < batch.size(); i++)
+                            replace(batch.get(i).placeholder(), (failure == null) ? Text.literal(decoded.get(i)) : Text.literal("!" + failure.getMessage() + "!"));
+
+                        startQueuedDecodes();
+                    });
+                });
+            } catch (RejectedExecutionException e) {
+                inFlightDecodes.release();
+
+                streamsInFlight.removeAll(batchStreams);
+
+                // Only happens while shutting down.
+                for (PendingMessage queued : batch)
+                    replace(queued.placeholder(), Text.literal("!Unable to decode message!"));
+            }
+        }
+    }
+
+    private boolean waitsForStream(PendingMessage queued) {
+        return queued.stream() && streamsInFlight.contains(queued.conversation());
+    }
+
+    private List<String> decodeBatch(List<PendingMessage> batch) {
+        List<MessageCodec.ReceivedMessage> msgs = new ArrayList<>(batch.size());
+
+        for (PendingMessage queued : batch)
+            msgs.add(new MessageCodec.ReceivedMessage(queued.msg(), queued.conversation()));
+
+        List<MessageCodec.DecodedMessage> decoded = codec.decodeMessages(msgs);
+
+        List<String> result = new ArrayList<>(decoded.size());
+
+        for (int i = 0; i < decoded.size(); i++) {
+            account(batch.get(i).conversation(), batch.get(i).reservation(), decoded.get(i).nanos());
+
+            result.add(decoded.get(i).msg());
+        }
+
+        return result;
+    }
+
+    // Without a reservation, i.e. for clicked messages, the decode is charged to the budget regardless.
+    private void account(String conversation, DecodeBudget.Reservation reservation, long nanos) {
+        if (reservation != null) {
+            budget.settle(reservation, nanos);
+        } else {
+            budget.charge(conversation, nanos);
+        }
+    }
+
+    private static void replace(MutableText placeholder, Text result) {
+        placeholder.getSiblings().clear();
+        placeholder.append(result);
+
+        MinecraftClient.getInstance().inGameHud.getChatHud().reset();
+    }
+
+    private record PendingMessage(String msg, String conversation, boolean stream, DecodeBudget.Reservation reservation, MutableText placeholder) {}
+
+}
@@ -0,0 +1,86 @@
+package me.lemontea.compresschat;
+
+import me.lemontea.compresschat.codec.CodecMetrics;
+import me.lemontea.compresschat.codec.DecodeCache;
+import me.lemontea.compresschat.codec.MessageCodec;
+import me.lemontea.compresschat.codec.OperationMetrics;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.Map;
+
+/*
+ * Commands handled entirely on the client. They are caught before being sent to the server,
+ * so the server never sees them (and doesn't suggest them either).
+ */
+public final class ClientCommands {
+
+    private static final String STATS_COMMAND = "compresschat stats";
+
+    private final MessageCodec codec;
+    private final AsyncMessageDecoder decoder;
+
+    public ClientCommands(MessageCodec codec, AsyncMessageDecoder decoder) {
+        this.codec = codec;
+        this.decoder = decoder;
+    }
+
+    // Returns true if the command was handled and should not be sent to the server.
+    public boolean execute(String command) {
+        String trimmedCommand = command.trim();
+
+        if (trimmedCommand.equals(STATS_COMMAND)) {
+            showStats();
+
+            return true;
+        }
+
+        if (trimmedCommand.startsWith(AsyncMessageDecoder.DECODE_DEFERRED_COMMAND + " ")) {
+            decodeDeferred(trimmedCommand.substring(AsyncMessageDecoder.DECODE_DEFERRED_COMMAND.length() + 1));
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private void decodeDeferred(String id) {
+        boolean decoded;
+
+        try {
+            decoded = decoder.decodeDeferred(Integer.parseInt(id.trim()));
+        } catch (NumberFormatException e) {
+            decoded = false;
+        }
+
+        if (!decoded)
+            showLine("This message is no longer available for decoding.");
+    }
+
+    private void showStats() {
+        CodecMetrics metrics = codec.getMetrics();
+        DecodeCache decodeCache = codec.getDecodeCache();
+
+        showLine("Encode: " + metrics.getEncodes().describe());
+        showLine("Decode: " + metrics.getDecodes().describe());
+
+        for (Map.Entry<Byte, OperationMetrics> entry : metrics.getCompressions().entrySet())
+            showLine("Compress #" + Byte.toUnsignedInt(entry.getKey()) + ": " + entry.getValue().describe());
+
+        for (Map.Entry<Byte, OperationMetrics> entry : metrics.getDecompressions().entrySet())
+            showLine("Decompress #" + Byte.toUnsignedInt(entry.getKey()) + ": " + entry.getValue().describe());
+
+        showLine(String.format(
+                "Decode cache: %d hits, %d misses, %d KiB",
+                decodeCache.getHits(),
+                decodeCache.getMisses(),
+                decodeCache.getSizeBytes() >> 10
+        ));
+    }
+
+    private static void showLine(String line) {
+        MinecraftClient.getInstance().inGameHud.getChatHud().addMessage(Text.literal(line).formatted(Formatting.GRAY));
+    }
+
+}
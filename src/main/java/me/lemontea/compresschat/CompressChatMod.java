@@ -3,11 +3,87 @@ package me.lemontea.compresschat;
 import me.lemontea.compresschat.codec.MessageCodec;
 import net.fabricmc.api.ClientModInitializer;
 
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 public final class CompressChatMod implements ClientModInitializer {
 
-    public static final MessageCodec CODEC = MessageCodec.createCodec();
+    private static final Duration COMPRESSOR_SELECTION_DEADLINE = Duration.ofMillis(50);
+
+    private static final int MAX_IN_FLIGHT_DECODES = Integer.getInteger("compresschat.maxInFlightDecodes", 64);
+    private static final int MAX_PENDING_SENDS = Integer.getInteger("compresschat.maxPendingSends", 8);
+
+    // Decoding time allowed per client tick for everyone, and per second for every sender.
+    private static final long DECODE_BUDGET_PER_TICK = TimeUnit.MICROSECONDS.toNanos(Long.getLong("compresschat.decodeBudgetMicrosPerTick", 5_000));
+    private static final long DECODE_BUDGET_PER_SENDER = TimeUnit.MICROSECONDS.toNanos(Long.getLong("compresschat.decodeBudgetMicrosPerSender", 20_000));
+
+    // Off by default, since clients without support for shared parts can't read any of them.
+    private static final boolean SHARED_SEGMENT_CONTEXT = Boolean.getBoolean("compresschat.sharedSegmentContext");
+    private static final boolean CONVERSATION_STREAMS = Boolean.getBoolean("compresschat.conversationStreams");
+
+    // Off by default, since clients without the zstd library can't read such parts.
+    private static final boolean ZSTD_ENCODING = Boolean.getBoolean("compresschat.zstd");
+
+    private static final ExecutorService CODEC_EXECUTOR = createExecutor("CompressChat Codec", 2);
+    private static final ExecutorService DECODE_EXECUTOR = createExecutor("CompressChat Decoder", 2);
+
+    // Kept apart from CODEC_EXECUTOR: an encode blocks on the best-of compressor tasks running there.
+    private static final ExecutorService ENCODE_EXECUTOR = createExecutor("CompressChat Encoder", 1);
+
+    // The draft estimator has a codec and executors of its own, so it never queues ahead of a message that's actually
+    // being sent, and drafts don't count in the stats or train the compressor choice of sent messages.
+    private static final ExecutorService ESTIMATE_CODEC_EXECUTOR = createExecutor("CompressChat Estimator Codec", 1);
+    private static final ExecutorService ESTIMATE_EXECUTOR = createExecutor("CompressChat Estimator", 1);
+
+    public static final MessageCodec CODEC = MessageCodec.createBestOfCodec(CODEC_EXECUTOR, COMPRESSOR_SELECTION_DEADLINE, ZSTD_ENCODING);
+
+    private static final MessageCodec ESTIMATE_CODEC = MessageCodec.createBestOfCodec(ESTIMATE_CODEC_EXECUTOR, COMPRESSOR_SELECTION_DEADLINE, ZSTD_ENCODING);
+
+    public static final AsyncMessageDecoder DECODER = new AsyncMessageDecoder(
+            CODEC,
+            DECODE_EXECUTOR,
+            MAX_IN_FLIGHT_DECODES,
+            new DecodeBudget(DECODE_BUDGET_PER_TICK, DECODE_BUDGET_PER_SENDER)
+    );
+
+    public static final MessageEncodePipeline ENCODER = new MessageEncodePipeline(
+            CODEC,
+            ENCODE_EXECUTOR,
+            MAX_PENDING_SENDS,
+            SHARED_SEGMENT_CONTEXT,
+            CONVERSATION_STREAMS
+    );
+
+    public static final EncodedLengthEstimator ESTIMATOR = new EncodedLengthEstimator(ESTIMATE_CODEC, ESTIMATE_EXECUTOR, SHARED_SEGMENT_CONTEXT);
+
+    public static final ClientCommands COMMANDS = new ClientCommands(CODEC, DECODER);
 
     @Override
-    public void onInitializeClient() {}
+    public void onInitializeClient() {
+        // Loads the native libraries off the startup path.
+        CODEC_EXECUTOR.execute(CODEC::warmUp);
+    }
+
+    public static void shutdown() {
+        ESTIMATE_EXECUTOR.shutdownNow();
+        ESTIMATE_CODEC_EXECUTOR.shutdownNow();
+        ENCODE_EXECUTOR.shutdownNow();
+        DECODE_EXECUTOR.shutdownNow();
+        CODEC_EXECUTOR.shutdownNow();
+        ESTIMATE_CODEC.close();
+        CODEC.close();
+    }
+
+    private static ExecutorService createExecutor(String threadName, int threads) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
 
 }
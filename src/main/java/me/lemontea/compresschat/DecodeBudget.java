@@ -0,0 +1,171 @@
+package me.lemontea.compresschat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Wall-clock time budget for decoding incoming chat: one shared by everyone per client tick, and one per sender
+ * per window of ticks. Decodes are admitted while budget is left, reserving an estimate of their cost
+ * (the length of their compressed parts times the decoding time per char seen so far), which is
+ * settled against the measured time once they finish. So a burst arriving within one tick is only
+ * admitted up to the budget, even though none of its decodes has finished yet.
+ *
+ * Senders who run out of their budget in several windows are throttled for a while, for longer
+ * every time it happens again.
+ */
+public final class DecodeBudget {
+
+    private static final int SENDER_WINDOW_TICKS = 20;
+
+    private static final int MAX_STRIKES = 3;
+
+    private static final int BASE_THROTTLE_TICKS = 200;
+    private static final int MAX_THROTTLE_SHIFT = 5;
+
+    private static final int MAX_TRACKED_SENDERS = 256;
+
+    // Decoding time per compressed char until decodes have been measured, about what a cold JIT gives.
+    private static final double INITIAL_NANOS_PER_CHAR = 500;
+
+    // Weight of the newest decode in the time per char.
+    private static final double COST_SMOOTHING = 0.125;
+
+    private final long tickBudgetNanos;
+    private final long senderBudgetNanos;
+
+    private final LinkedHashMap<String, SenderState> senders = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long tick;
+    private long tickUsedNanos;
+
+    private double nanosPerChar = INITIAL_NANOS_PER_CHAR;
+
+    public DecodeBudget(long tickBudgetNanos, long senderBudgetNanos) {
+        this.tickBudgetNanos = tickBudgetNanos;
+        this.senderBudgetNanos = senderBudgetNanos;
+    }
+
+    public synchronized void onTick() {
+        tick++;
+        tickUsedNanos = 0;
+    }
+
+    // Admits a decode of the given number of compressed chars and reserves its estimated cost, or returns null if
+    // there's no budget left for it. Senders are identified by the conversation key of their messages; null stands for unknown senders.
+    public synchronized Reservation tryReserve(String sender, int chars) {
+        SenderState state = senderState(sender);
+
+        if (tick < state.throttledUntilTick || tickUsedNanos >= tickBudgetNanos || state.usedNanos >= senderBudgetNanos)
+            return null;
+
+        Reservation reservation = new Reservation(sender, chars, Math.round(chars * nanosPerChar), tick, state.windowStartTick);
+
+        tickUsedNanos += reservation.nanos;
+        use(state, reservation.nanos);
+
+        return reservation;
+    }
+
+    // Replaces the estimate reserved for a finished decode with the time it actually took.
+    public synchronized void settle(Reservation reservation, long nanos) {
+        if (reservation.chars > 0)
+            nanosPerChar += ((double) nanos / reservation.chars - nanosPerChar) * COST_SMOOTHING;
+
+        SenderState state = senderState(reservation.sender);
+
+        // An estimate counted in a tick or window that has passed since is settled there; only what it fell short of counts now.
+        long correction = nanos - reservation.nanos;
+
+        tickUsedNanos = Math.max(tickUsedNanos + ((reservation.tick == tick) ? correction : Math.max(correction, 0)), 0);
+
+        use(state, (reservation.windowStartTick == state.windowStartTick) ? correction : Math.max(correction, 0));
+    }
+
+    // Charges a decode that was never reserved, e.g. one that can't be deferred.
+    public synchronized void charge(String sender, long nanos) {
+        tickUsedNanos += nanos;
+
+        use(senderState(sender), nanos);
+    }
+
+    private void use(SenderState state, long nanos) {
+        state.usedNanos = Math.max(state.usedNanos + nanos, 0);
+
+        if (state.usedNanos < senderBudgetNanos || state.exhausted)
+            return;
+
+        // Counted once per window, however many of the sender's messages were deferred in it.
+        state.exhausted = true;
+
+        if (++state.strikes >= MAX_STRIKES) {
+            state.throttledUntilTick = tick + ((long) BASE_THROTTLE_TICKS << Math.min(state.throttles, MAX_THROTTLE_SHIFT));
+            state.throttles++;
+            state.strikes = 0;
+        }
+    }
+
+    private SenderState senderState(String sender) {
+        SenderState state = senders.get(sender);
+
+        if (state == null) {
+            state = new SenderState();
+            state.windowStartTick = tick;
+
+            senders.put(sender, state);
+
+            Iterator<Map.Entry<String, SenderState>> iterator = senders.entrySet().iterator();
+
+            while (senders.size() > MAX_TRACKED_SENDERS && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+
+        if (tick - state.windowStartTick >= SENDER_WINDOW_TICKS) {
+            // Strikes wear off in windows where the sender stayed within the budget.
+            if (!state.exhausted && state.strikes > 0)
+                state.strikes--;
+
+            state.windowStartTick = tick;
+            state.usedNanos = 0;
+            state.exhausted = false;
+        }
+
+        return state;
+    }
+
+    public static final class Reservation {
+
+        private final String sender;
+        private final int chars;
+        private final long nanos;
+
+        private final long tick;
+        private final long windowStartTick;
+
+        private Reservation(String sender, int chars, long nanos, long tick, long windowStartTick) {
+            this.sender = sender;
+            this.chars = chars;
+            this.nanos = nanos;
+            this.tick = tick;
+            this.windowStartTick = windowStartTick;
+        }
+
+    }
+
+    private static final class SenderState {
+
+        private long windowStartTick;
+        private long usedNanos;
+
+        private boolean exhausted;
+
+        private int strikes;
+        private int throttles;
+
+        private long throttledUntilTick;
+
+    }
+
+}
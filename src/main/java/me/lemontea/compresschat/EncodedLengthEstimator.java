@@ -0,0 +1,145 @@
+package me.lemontea.compresschat;
+
+import me.lemontea.compresschat.codec.MessageCodec;
+import net.minecraft.client.MinecraftClient;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Projects the encoded length of the chat draft while it's being typed.
+ *
+ * Every keystroke only rescans the draft for compressed parts: the estimate is the length of the
+ * last fully encoded draft, adjusted by how much plain text and compressed contents changed since,
+ * the latter scaled by the encoded chars per contents char seen so far. Once the draft stops
+ * changing for a moment, it's encoded in the background and the result becomes the exact length.
+ *
+ * The codec is expected to be one of its own, since drafts would otherwise count in its metrics
+ * and train its compressor choice. All state is confined to the client thread.
+ */
+public final class EncodedLengthEstimator {
+
+    private static final long DEBOUNCE_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+
+    // Encoded chars per contents char until the first encode finishes, somewhere between short and long chat.
+    private static final double INITIAL_RATIO = 0.5;
+
+    // Weight of the newest encode in the ratio.
+    private static final double SMOOTHING = 0.25;
+
+    private final MessageCodec codec;
+    private final Executor executor;
+
+    private final boolean sharedContext;
+
+    private double ratio = INITIAL_RATIO;
+
+    // The last fully encoded draft, which estimates are relative to.
+    private Anchor anchor = new Anchor("", 0, 0, 0, null);
+
+    private String draft = "";
+    private long draftChangedTime;
+    private boolean draftCompressed;
+
+    private Estimate estimate;
+
+    private boolean encoding;
+
+    public EncodedLengthEstimator(MessageCodec codec, Executor executor, boolean sharedContext) {
+        this.codec = codec;
+        this.executor = executor;
+        this.sharedContext = sharedContext;
+    }
+
+    // Called every frame with the current draft. Returns null for plain text that fits, there's nothing to show for it.
+    public Estimate estimate(String currentDraft) {
+        if (!currentDraft.equals(draft)) {
+            draft = currentDraft;
+            draftChangedTime = System.nanoTime();
+            draftCompressed = codec.hasCompressedParts(draft);
+
+            estimate = null;
+        }
+
+        if (!draftCompressed)
+            return (draft.length() > MessageCodec.MAX_MESSAGE_LENGTH) ? new Estimate(draft.length(), true, null) : null;
+
+        if (estimate == null)
+            estimate = project();
+
+        if (!encoding && !estimate.exact() && System.nanoTime() - draftChangedTime >= DEBOUNCE_NANOS)
+            encodeInBackground(draft);
+
+        return estimate;
+    }
+
+    private Estimate project() {
+        if (draft.equals(anchor.draft()))
+            return new Estimate(anchor.encodedLength(), true, anchor.failure());
+
+        int contentsLength = codec.getCompressedContentsLength(draft);
+        int plainLength = draft.length() - contentsLength;
+
+        long projected = anchor.encodedLength()
+                + (plainLength - anchor.plainLength())
+                + Math.round((contentsLength - anchor.contentsLength()) * ratio);
+
+        return new Estimate((int) Math.max(projected, plainLength), false, null);
+    }
+
+    private void encodeInBackground(String msg) {
+        encoding = true;
+
+        CompletableFuture<String> encoded;
+
+        try {
+            // Never a conversation stream message, as encoding one advances the stream.
+            encoded = CompletableFuture.supplyAsync(() -> codec.encodeMessage(msg, sharedContext), executor);
+        } catch (RejectedExecutionException e) {
+            encoding = false;
+
+            return;
+        }
+
+        encoded.whenComplete((result, e) -> MinecraftClient.getInstance().send(() -> onEncoded(msg, result, e)));
+    }
+
+    private void onEncoded(String msg, String encoded, Throwable e) {
+        encoding = false;
+
+        int contentsLength = codec.getCompressedContentsLength(msg);
+        int plainLength = msg.length() - contentsLength;
+
+        if (e != null) {
+            Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+
+            // A failed encode has no length of its own, so later estimates only build on its plain text.
+            anchor = new Anchor(msg, plainLength, contentsLength, plainLength, cause.getMessage());
+        } else {
+            anchor = new Anchor(msg, plainLength, contentsLength, encoded.length(), null);
+
+            if (contentsLength > 0) {
+                double encodedRatio = (double) (encoded.length() - plainLength) / contentsLength;
+
+                ratio += (encodedRatio - ratio) * SMOOTHING;
+            }
+        }
+
+        // Re-projected against the new anchor, even if the draft has changed in the meantime.
+        estimate = null;
+    }
+
+    public record Estimate(int length, boolean exact, String failure) {
+
+        public boolean fits() {
+            return failure == null && length <= MessageCodec.MAX_MESSAGE_LENGTH;
+        }
+
+    }
+
+    private record Anchor(String draft, int plainLength, int contentsLength, int encodedLength, String failure) {}
+
+}
@@ -0,0 +1,126 @@
+package me.lemontea.compresschat;
+
+import me.lemontea.compresschat.codec.MessageCodec;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/*
+ * Encodes outgoing chat off the client thread.
+ *
+ * Every message sent while encodes are pending is queued behind them, and the queue is only
+ * drained from its head, so messages reach the server in the order they were submitted.
+ * All state is confined to the client thread.
+ */
+public final class MessageEncodePipeline {
+
+    private final MessageCodec codec;
+    private final Executor executor;
+
+    private final int maxPendingMessages;
+    private final boolean sharedContext;
+    private final boolean conversationStreams;
+
+    private final Queue<PendingMessage> pendingMessages = new ArrayDeque<>();
+
+    private boolean sending;
+
+    public MessageEncodePipeline(MessageCodec codec,
+                                 Executor executor,
+                                 int maxPendingMessages,
+                                 boolean sharedContext,
+                                 boolean conversationStreams) {
+        this.codec = codec;
+        this.executor = executor;
+        this.maxPendingMessages = maxPendingMessages;
+        this.sharedContext = sharedContext;
+        this.conversationStreams = conversationStreams;
+    }
+
+    // Returns true if the message was taken over by the pipeline and the original send should be cancelled.
+    public boolean submit(String msg, String conversation, Consumer<String> sender) {
+        if (sending)
+            return false;
+
+        boolean hasCompressedParts = codec.hasCompressedParts(msg);
+
+        if (pendingMessages.isEmpty() && !hasCompressedParts)
+            return false;
+
+        if (pendingMessages.size() >= maxPendingMessages) {
+            showError("Too many messages are still being compressed, slow down!");
+
+            return true;
+        }
+
+        CompletableFuture<String> encoded;
+
+        if (hasCompressedParts) {
+            try {
+                encoded = CompletableFuture.supplyAsync(() -> encode(msg, conversation), executor);
+            } catch (RejectedExecutionException e) {
+                showError("Unable to compress message!");
+
+                return true;
+            }
+
+            // Always goes through the task queue, even if the encode has already finished.
+            encoded.whenComplete((result, e) -> MinecraftClient.getInstance().send(this::drain));
+        } else {
+            encoded = CompletableFuture.completedFuture(msg);
+        }
+
+        pendingMessages.add(new PendingMessage(encoded, sender));
+
+        return true;
+    }
+
+    private String encode(String msg, String conversation) {
+        if (conversationStreams)
+            return codec.encodeStreamMessage(msg, conversation);
+
+        return codec.encodeMessage(msg, sharedContext);
+    }
+
+    private void drain() {
+        while (!pendingMessages.isEmpty() && pendingMessages.peek().encoded().isDone()) {
+            PendingMessage pendingMessage = pendingMessages.poll();
+
+            String encoded;
+
+            try {
+                encoded = pendingMessage.encoded().join();
+            } catch (CompletionException | CancellationException e) {
+                Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+
+                showError("Unable to compress message: " + cause.getMessage());
+
+                continue;
+            }
+
+            sending = true;
+
+            try {
+                pendingMessage.sender().accept(encoded);
+            } finally {
+                sending = false;
+            }
+        }
+    }
+
+    private static void showError(String error) {
+        MinecraftClient.getInstance().inGameHud.getChatHud().addMessage(Text.literal(error).formatted(Formatting.RED));
+    }
+
+    private record PendingMessage(CompletableFuture<String> encoded, Consumer<String> sender) {}
+
+}
@@ -0,0 +1,166 @@
+package me.lemontea.compresschat.codec;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+final class Alphabet {
+
+    private static final int NO_DIGIT = -1;
+
+    // Every char is compared against every run, so with more runs the lookup table is faster.
+    private static final int MAX_VECTOR_RUNS = 8;
+
+    // Chars are copied out of the string for the SIMD path in chunks of this size, a multiple of any vector length.
+    private static final int VECTOR_CHUNK_CHARS = 1 << 10;
+
+    private static final boolean VECTORIZED = isVectorApiAvailable();
+
+    private final char[] digitChars;
+    private final int[] charDigits;
+
+    // Runs of consecutive digit chars for the SIMD path, null if there are too many; digit = char - offset within a run.
+    private final char[] runStarts;
+    private final char[] runEnds;
+    private final char[] runOffsets;
+
+    private final RadixConverter converter;
+
+    private Alphabet(char[] digitChars, int[] charDigits) {
+        this.digitChars = digitChars;
+        this.charDigits = charDigits;
+
+        int[] runStartIdxs = IntStream.range(0, digitChars.length)
+                .filter(idx -> idx == 0 || digitChars[idx] != digitChars[idx - 1] + 1)
+                .toArray();
+
+        if (runStartIdxs.length <= MAX_VECTOR_RUNS) {
+            runStarts = new char[runStartIdxs.length];
+            runEnds = new char[runStartIdxs.length];
+            runOffsets = new char[runStartIdxs.length];
+
+            for (int run = 0; run < runStartIdxs.length; run++) {
+                int endIdx = (run + 1 < runStartIdxs.length) ? runStartIdxs[run + 1] - 1 : digitChars.length - 1;
+
+                runStarts[run] = digitChars[runStartIdxs[run]];
+                runEnds[run] = digitChars[endIdx];
+                runOffsets[run] = (char) (digitChars[runStartIdxs[run]] - runStartIdxs[run]);
+            }
+        } else {
+            runStarts = null;
+            runEnds = null;
+            runOffsets = null;
+        }
+
+        converter = new RadixConverter(digitChars.length);
+    }
+
+    private static boolean isVectorApiAvailable() {
+        try {
+            DigitVectors.load();
+
+            return true;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    static Alphabet createDefault() {
+        return of(
+                '\u0021',
+                Character.MAX_VALUE,
+                charCode -> {
+                    int charType = Character.getType((char) charCode);
+
+                    return charCode != 0x7F
+                            && charCode != 0xA7
+                            && charType != Character.UNASSIGNED
+                            && charType != Character.PRIVATE_USE
+                            && charType != Character.SURROGATE;
+                }
+        );
+    }
+
+    static Alphabet of(char fromChar, char toChar, IntPredicate charFilter) {
+        char[] digitChars = new char[toChar - fromChar + 1];
+        int[] charDigits = new int[Character.MAX_VALUE + 1];
+
+        Arrays.fill(charDigits, NO_DIGIT);
+
+        int charIdx = 0;
+
+        for (int charCode = fromChar; charCode <= toChar; charCode++) {
+            if (charFilter.test(charCode)) {
+                digitChars[charIdx] = (char) charCode;
+                charDigits[charCode] = charIdx;
+
+                charIdx++;
+            }
+        }
+
+        if (charIdx < 2)
+            throw new IllegalArgumentException("The resulting alphabet is too small!");
+
+        return new Alphabet(Arrays.copyOf(digitChars, charIdx), charDigits);
+    }
+
+    int size() {
+        return digitChars.length;
+    }
+
+    char toChar(int digit) {
+        return digitChars[digit];
+    }
+
+    int toDigit(char ch) {
+        int digit = charDigits[ch];
+
+        if (digit == NO_DIGIT)
+            throw new IllegalArgumentException("Unexpected character!");
+
+        return digit;
+    }
+
+    // Maps the chars of str between from and to, rejecting the whole range if any of them isn't a digit.
+    int[] toDigits(String str, int from, int to) {
+        int[] digits = new int[to - from];
+
+        int mappedDigits = 0;
+
+        if (VECTORIZED && runStarts != null && digits.length >= DigitVectors.laneCount()) {
+            char[] chunk = new char[Math.min(digits.length, VECTOR_CHUNK_CHARS)];
+
+            // Only the last chunk can end with chars left for the scalar loop.
+            for (int chunkIdx = 0; chunkIdx < digits.length; chunkIdx += chunk.length) {
+                int chunkLength = Math.min(chunk.length, digits.length - chunkIdx);
+
+                str.getChars(from + chunkIdx, from + chunkIdx + chunkLength, chunk, 0);
+
+                mappedDigits = chunkIdx + DigitVectors.toDigits(chunk, chunkLength, runStarts, runEnds, runOffsets, digits, chunkIdx);
+            }
+        }
+
+        for (int i = mappedDigits; i < digits.length; i++)
+            digits[i] = toDigit(str.charAt(from + i));
+
+        return digits;
+    }
+
+    String encode(BigInteger value) {
+        int[] digits = converter.toDigits(value);
+        char[] result = new char[digits.length];
+
+        for (int i = 0; i < digits.length; i++)
+            result[i] = digitChars[digits[i]];
+
+        return new String(result);
+    }
+
+    BigInteger decode(String str) {
+        int[] digits = toDigits(str, 0, str.length());
+
+        return converter.fromDigits(digits, 0, digits.length);
+    }
+
+}
@@ -0,0 +1,101 @@
+package me.lemontea.compresschat.codec;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Alphabets a compressed part can be written in. Denser alphabets need fewer chars, but most of their
+ * chars take 3 bytes in UTF-8, so sparser ones send fewer bytes whenever the message fits anyway.
+ *
+ * Parts in any profile but the densest one start with a header char naming the profile. Like the other
+ * headers, it's from the private use area, so it's never an alphabet digit itself.
+ */
+enum AlphabetProfile {
+
+    // The original alphabet, which parts without a profile header are written in. It contains line terminators, which
+    // findSegment() rejects, so its blocks use the wire-safe subset instead; older clients can't read blocks anyway.
+    MAX_DENSITY(Alphabet.createDefault(), Alphabet.of('\u0021', Character.MAX_VALUE, AlphabetProfile::isWireSafe)),
+
+    // Chars taking at most 2 bytes in UTF-8.
+    TWO_BYTE(Alphabet.of('\u0021', '\u07FF', AlphabetProfile::isWireSafe)),
+
+    // Printable ASCII, a single byte each.
+    ASCII(Alphabet.of('\u0021', '\u007E', AlphabetProfile::isWireSafe));
+
+    private static final char HEADER_BASE = '\uE040';
+
+    private static final AlphabetProfile[] VALUES = values();
+
+    // From the fewest UTF-8 bytes per payload bit to the most, which ends with the densest profile.
+    static final List<AlphabetProfile> BY_BYTE_COST = Arrays.stream(VALUES)
+            .sorted(Comparator.comparingDouble(AlphabetProfile::bitsPerByte).reversed())
+            .toList();
+
+    private final Alphabet alphabet;
+    private final BlockCodec blockCodec;
+
+    private final double bitsPerByte;
+
+    AlphabetProfile(Alphabet alphabet) {
+        this(alphabet, alphabet);
+    }
+
+    AlphabetProfile(Alphabet alphabet, Alphabet blockAlphabet) {
+        this.alphabet = alphabet;
+        this.blockCodec = new BlockCodec(blockAlphabet);
+
+        long utf8Bytes = 0;
+
+        for (int digit = 0; digit < alphabet.size(); digit++) {
+            char ch = alphabet.toChar(digit);
+
+            utf8Bytes += (ch < 0x80) ? 1 : (ch < 0x800) ? 2 : 3;
+        }
+
+        // Digits are close to uniformly distributed in compressed data.
+        this.bitsPerByte = Math.log(alphabet.size()) / Math.log(2) / ((double) utf8Bytes / alphabet.size());
+    }
+
+    // Returns null for chars that aren't a profile header, i.e. for parts written in the densest profile.
+    static AlphabetProfile ofHeader(char header) {
+        int ordinal = header - HEADER_BASE;
+
+        return (ordinal > 0 && ordinal < VALUES.length) ? VALUES[ordinal] : null;
+    }
+
+    boolean hasHeader() {
+        return this != MAX_DENSITY;
+    }
+
+    char header() {
+        return (char) (HEADER_BASE + ordinal());
+    }
+
+    Alphabet alphabet() {
+        return alphabet;
+    }
+
+    BlockCodec blockCodec() {
+        return blockCodec;
+    }
+
+    double bitsPerByte() {
+        return bitsPerByte;
+    }
+
+    // Leaves out '$', so "!$" never shows up inside a part, as well as anything chat could collapse, strip or break lines at.
+    private static boolean isWireSafe(int charCode) {
+        if (charCode == '$' || charCode == 0x7F || charCode == 0xA7)
+            return false;
+
+        return switch (Character.getType((char) charCode)) {
+            case Character.UNASSIGNED, Character.PRIVATE_USE, Character.SURROGATE,
+                    Character.CONTROL, Character.FORMAT,
+                    Character.SPACE_SEPARATOR, Character.LINE_SEPARATOR, Character.PARAGRAPH_SEPARATOR,
+                    Character.NON_SPACING_MARK, Character.ENCLOSING_MARK, Character.COMBINING_SPACING_MARK -> false;
+            default -> true;
+        };
+    }
+
+}
@@ -0,0 +1,180 @@
+package me.lemontea.compresschat.codec;
+
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/*
+ * Wire format v2: the payload is split into fixed-size big-endian byte blocks and every block
+ * is converted to a fixed number of little-endian alphabet digits on its own, using long arithmetic.
+ * Conversion is linear in the payload size and blocks of large payloads are converted in parallel.
+ *
+ * The first char of a segment is a header from the private use area. Such chars are valid in chat,
+ * but never part of an alphabet, so v1 segments can't start with them. The header also carries the
+ * number of bytes in the trailing partial block, which is encoded with as few digits as possible.
+ */
+final class BlockCodec {
+
+    private static final char HEADER_BASE = '\uE010';
+
+    // Block values have to stay below 2^63 to fit into a signed long.
+    private static final int MAX_BLOCK_BYTES = 7;
+
+    private static final int PARALLEL_THRESHOLD = 1 << 12;
+
+    private final Alphabet alphabet;
+    private final int base;
+
+    private final int blockBytes;
+    private final int blockDigits;
+
+    private final int[] digitsForBytes;
+
+    BlockCodec(Alphabet alphabet) {
+        this.alphabet = alphabet;
+
+        base = alphabet.size();
+
+        digitsForBytes = new int[MAX_BLOCK_BYTES + 1];
+
+        int bestBytes = 1;
+
+        for (int bytes = 1; bytes <= MAX_BLOCK_BYTES; bytes++) {
+            int digits = 0;
+
+            for (long maxValue = (1L << (bytes * Byte.SIZE)) - 1; maxValue > 0; maxValue /= base)
+                digits++;
+
+            digitsForBytes[bytes] = digits;
+
+            // Pick the block size with the most bytes per digit.
+            if (bytes * digitsForBytes[bestBytes] >= bestBytes * digits)
+                bestBytes = bytes;
+        }
+
+        blockBytes = bestBytes;
+        blockDigits = digitsForBytes[bestBytes];
+    }
+
+    int encodedLength(int length) {
+        return 1 + length / blockBytes * blockDigits + digitsForBytes[length % blockBytes];
+    }
+
+    static boolean isBlockFormat(String str) {
+        return !str.isEmpty() && str.charAt(0) >= HEADER_BASE && str.charAt(0) <= HEADER_BASE + MAX_BLOCK_BYTES;
+    }
+
+    String encode(byte[] data, int offset, int length) {
+        int blocks = length / blockBytes;
+        int tailBytes = length % blockBytes;
+
+        char[] result = new char[1 + blocks * blockDigits + digitsForBytes[tailBytes]];
+
+        result[0] = (char) (HEADER_BASE + tailBytes);
+
+        forEachBlock(blocks, block -> writeDigits(
+                readBlock(data, offset + block * blockBytes, blockBytes),
+                result,
+                1 + block * blockDigits,
+                blockDigits
+        ));
+
+        writeDigits(
+                readBlock(data, offset + blocks * blockBytes, tailBytes),
+                result,
+                1 + blocks * blockDigits,
+                digitsForBytes[tailBytes]
+        );
+
+        return new String(result);
+    }
+
+    byte[] decode(String str) {
+        if (!isBlockFormat(str))
+            throw new IllegalArgumentException("Malformed message!");
+
+        int tailBytes = str.charAt(0) - HEADER_BASE;
+
+        if (tailBytes >= blockBytes)
+            throw new IllegalArgumentException("Malformed message!");
+
+        int bodyDigits = str.length() - 1 - digitsForBytes[tailBytes];
+
+        if (bodyDigits < 0 || bodyDigits % blockDigits != 0)
+            throw new IllegalArgumentException("Malformed message!");
+
+        int blocks = bodyDigits / blockDigits;
+
+        byte[] result = new byte[blocks * blockBytes + tailBytes];
+
+        // Every char is validated before any arithmetic, so malformed parts are rejected early.
+        int[] digits = alphabet.toDigits(str, 1, str.length());
+
+        forEachBlock(blocks, block -> writeBlock(
+                readDigits(digits, block * blockDigits, blockDigits, blockBytes),
+                result,
+                block * blockBytes,
+                blockBytes
+        ));
+
+        writeBlock(
+                readDigits(digits, blocks * blockDigits, digitsForBytes[tailBytes], tailBytes),
+                result,
+                blocks * blockBytes,
+                tailBytes
+        );
+
+        return result;
+    }
+
+    private static void forEachBlock(int blocks, IntConsumer action) {
+        if (blocks >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, blocks).parallel().forEach(action);
+        } else {
+            for (int block = 0; block < blocks; block++)
+                action.accept(block);
+        }
+    }
+
+    private static long readBlock(byte[] data, int offset, int bytes) {
+        long value = 0;
+
+        for (int i = 0; i < bytes; i++)
+            value = (value << Byte.SIZE) | (data[offset + i] & 0xFF);
+
+        return value;
+    }
+
+    private static void writeBlock(long value, byte[] data, int offset, int bytes) {
+        for (int i = bytes - 1; i >= 0; i--) {
+            data[offset + i] = (byte) value;
+
+            value >>>= Byte.SIZE;
+        }
+    }
+
+    private void writeDigits(long value, char[] result, int offset, int digits) {
+        for (int i = 0; i < digits; i++) {
+            result[offset + i] = alphabet.toChar((int) (value % base));
+
+            value /= base;
+        }
+    }
+
+    private long readDigits(int[] digits, int offset, int count, int bytes) {
+        long maxValue = (1L << (bytes * Byte.SIZE)) - 1;
+        long value = 0;
+
+        for (int i = count - 1; i >= 0; i--) {
+            int digit = digits[offset + i];
+
+            // Rejects digit strings that don't fit into the block instead of letting them overflow.
+            if (value > (maxValue - digit) / base)
+                throw new IllegalArgumentException("Malformed message!");
+
+            value = value * base + digit;
+        }
+
+        return value;
+    }
+
+}
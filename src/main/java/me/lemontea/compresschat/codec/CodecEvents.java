@@ -0,0 +1,97 @@
+package me.lemontea.compresschat.codec;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * JDK Flight Recorder events of the codec hot paths. They cost next to nothing unless a recording
+ * has them enabled, e.g. java -XX:StartFlightRecording ... and then the "CompressChat" category in JMC.
+ */
+final class CodecEvents {
+
+    private CodecEvents() {}
+
+    @Name("me.lemontea.compresschat.Encode")
+    @Label("Encode")
+    @Description("Compression and alphabet encoding of one compressed part")
+    @Category("CompressChat")
+    @StackTrace(false)
+    static final class Encode extends Event {
+
+        @Label("Message Length")
+        @Description("Length of the part in chars")
+        int messageLength;
+
+        @Label("Encoded Length")
+        @Description("Length of the encoded part in chars")
+        int encodedLength;
+
+        @Label("Compressor ID")
+        byte compressorId;
+
+        @Label("Alphabet Profile")
+        String alphabetProfile;
+
+        @Label("Failure")
+        String failure;
+
+    }
+
+    @Name("me.lemontea.compresschat.Decode")
+    @Label("Decode")
+    @Description("Alphabet decoding and decompression of one compressed part")
+    @Category("CompressChat")
+    @StackTrace(false)
+    static final class Decode extends Event {
+
+        @Label("Encoded Length")
+        @Description("Length of the encoded part in chars")
+        int encodedLength;
+
+        @Label("Decoded Length")
+        @Description("Length of the decoded part in chars")
+        int decodedLength;
+
+        @Label("Compressor ID")
+        byte compressorId;
+
+        @Label("Failure")
+        String failure;
+
+    }
+
+    @Name("me.lemontea.compresschat.Compressor")
+    @Label("Compressor Call")
+    @Description("A single compress or decompress call of a string compressor")
+    @Category("CompressChat")
+    @StackTrace(false)
+    static final class Compressor extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Compressor ID")
+        byte compressorId;
+
+        @Label("Input Size")
+        @Description("Chars of the string to compress, or bytes of the data to decompress")
+        int inputSize;
+
+        @Label("Output Size")
+        @Description("Bytes of the compressed data, or chars of the decompressed string")
+        int outputSize;
+
+        @Label("Level")
+        @Description("Compression level picked for the call, if the compressor has levels")
+        int level;
+
+        @Label("Failure")
+        String failure;
+
+    }
+
+}
@@ -0,0 +1,43 @@
+package me.lemontea.compresschat.codec;
+
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+ * In-process counters of a codec. Encodes and decodes are measured per compressed part (sizes in chars),
+ * the compressor calls per compressor ID (sizes in bytes). Decode cache hits never reach the decoder.
+ */
+public final class CodecMetrics {
+
+    private final OperationMetrics encodes = new OperationMetrics();
+    private final OperationMetrics decodes = new OperationMetrics();
+
+    private final NavigableMap<Byte, OperationMetrics> compressions = new ConcurrentSkipListMap<>(Byte::compareUnsigned);
+    private final NavigableMap<Byte, OperationMetrics> decompressions = new ConcurrentSkipListMap<>(Byte::compareUnsigned);
+
+    public OperationMetrics getEncodes() {
+        return encodes;
+    }
+
+    public OperationMetrics getDecodes() {
+        return decodes;
+    }
+
+    public NavigableMap<Byte, OperationMetrics> getCompressions() {
+        return Collections.unmodifiableNavigableMap(compressions);
+    }
+
+    public NavigableMap<Byte, OperationMetrics> getDecompressions() {
+        return Collections.unmodifiableNavigableMap(decompressions);
+    }
+
+    OperationMetrics compressionsOf(byte compressorId) {
+        return compressions.computeIfAbsent(compressorId, id -> new OperationMetrics());
+    }
+
+    OperationMetrics decompressionsOf(byte compressorId) {
+        return decompressions.computeIfAbsent(compressorId, id -> new OperationMetrics());
+    }
+
+}
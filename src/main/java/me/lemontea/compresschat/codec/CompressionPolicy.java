@@ -0,0 +1,182 @@
+package me.lemontea.compresschat.codec;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Learns which compressor and level pay off for parts of a given length. Every compress call updates
+ * moving averages of the compressed bytes per char and of the time taken, kept per power-of-two length
+ * bucket, both for the compressor as a whole and for each of its levels.
+ *
+ * The strongest level within the latency target is used, unless a faster one compresses almost as well.
+ * Every so often a neighbouring choice is tried instead, so the statistics keep up with the chat.
+ * The compressor and level choices count their decisions separately, per length bucket (and compressor),
+ * so neither keeps landing on the same step of the other's exploration cycle.
+ */
+final class CompressionPolicy {
+
+    private static final int MAX_LENGTH_BUCKET = 16;
+
+    // Weight of the newest sample in the moving averages.
+    private static final double SMOOTHING = 0.125;
+
+    // A faster level is preferred while it compresses at most this much worse.
+    private static final double RATIO_TOLERANCE = 0.02;
+
+    private static final int EXPLORATION_INTERVAL = 16;
+
+    private static final int ANY_LEVEL = Integer.MIN_VALUE;
+
+    // Not a valid compressor ID, keys the compressor decisions of a bucket.
+    private static final byte ANY_COMPRESSOR = 0;
+
+    private final long latencyTargetNanos;
+
+    private final boolean adaptive;
+
+    private final ConcurrentHashMap<Key, Stats> stats = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Key, AtomicLong> decisions = new ConcurrentHashMap<>();
+
+    CompressionPolicy(long latencyTargetNanos) {
+        this(latencyTargetNanos, true);
+    }
+
+    private CompressionPolicy(long latencyTargetNanos, boolean adaptive) {
+        this.latencyTargetNanos = latencyTargetNanos;
+        this.adaptive = adaptive;
+    }
+
+    // Always picks the first compressor at its strongest level, so measurements don't depend on what was learned.
+    static CompressionPolicy pinned() {
+        return new CompressionPolicy(0, false);
+    }
+
+    // Picks one of the given compressor IDs: each is tried once per length bucket, then the best one is kept.
+    byte chooseCompressor(List<Byte> compressorIds, int length) {
+        if (!adaptive)
+            return compressorIds.get(0);
+
+        int bucket = bucketOf(length);
+
+        for (byte compressorId : compressorIds) {
+            if (!stats.containsKey(new Key(compressorId, bucket, ANY_LEVEL)))
+                return compressorId;
+        }
+
+        long decision = nextDecision(ANY_COMPRESSOR, bucket);
+
+        if (decision % EXPLORATION_INTERVAL == 0)
+            return compressorIds.get((int) (decision / EXPLORATION_INTERVAL % compressorIds.size()));
+
+        byte best = compressorIds.get(0);
+        double bestRatio = Double.MAX_VALUE;
+
+        for (byte compressorId : compressorIds) {
+            double ratio = stats.get(new Key(compressorId, bucket, ANY_LEVEL)).ratio();
+
+            if (ratio < bestRatio) {
+                best = compressorId;
+                bestRatio = ratio;
+            }
+        }
+
+        return best;
+    }
+
+    // Levels go from the fastest to the strongest, as returned by StringCompressor.levels().
+    int chooseLevel(byte compressorId, int[] levels, int length) {
+        if (!adaptive)
+            return levels[levels.length - 1];
+
+        int bucket = bucketOf(length);
+
+        int idx = levels.length - 1;
+
+        // Levels without statistics are assumed to be fast enough, so they get measured.
+        while (idx > 0 && nanosOf(compressorId, bucket, levels[idx]) > latencyTargetNanos)
+            idx--;
+
+        while (idx > 0 && ratioOf(compressorId, bucket, levels[idx - 1]) <= ratioOf(compressorId, bucket, levels[idx]) * (1 + RATIO_TOLERANCE))
+            idx--;
+
+        long decision = nextDecision(compressorId, bucket);
+
+        if (decision % EXPLORATION_INTERVAL == 0 && levels.length > 1) {
+            boolean stronger = (decision / EXPLORATION_INTERVAL) % 2 == 0;
+
+            idx = (stronger && idx < levels.length - 1) || idx == 0 ? idx + 1 : idx - 1;
+        }
+
+        return levels[idx];
+    }
+
+    void record(byte compressorId, int level, int length, int compressedLength, long nanos) {
+        int bucket = bucketOf(length);
+
+        // Per char of input, so parts of different lengths within a bucket are comparable.
+        double ratio = (double) compressedLength / Math.max(length, 1);
+
+        stats.computeIfAbsent(new Key(compressorId, bucket, ANY_LEVEL), key -> new Stats()).update(ratio, nanos);
+
+        if (level != ANY_LEVEL)
+            stats.computeIfAbsent(new Key(compressorId, bucket, level), key -> new Stats()).update(ratio, nanos);
+    }
+
+    void record(byte compressorId, int length, int compressedLength, long nanos) {
+        record(compressorId, ANY_LEVEL, length, compressedLength, nanos);
+    }
+
+    private long nextDecision(byte compressorId, int bucket) {
+        return decisions.computeIfAbsent(new Key(compressorId, bucket, ANY_LEVEL), key -> new AtomicLong()).getAndIncrement();
+    }
+
+    private double ratioOf(byte compressorId, int bucket, int level) {
+        Stats levelStats = stats.get(new Key(compressorId, bucket, level));
+
+        return (levelStats != null) ? levelStats.ratio() : Double.MAX_VALUE;
+    }
+
+    private long nanosOf(byte compressorId, int bucket, int level) {
+        Stats levelStats = stats.get(new Key(compressorId, bucket, level));
+
+        return (levelStats != null) ? levelStats.nanos() : 0;
+    }
+
+    private static int bucketOf(int length) {
+        return Math.min(Integer.SIZE - Integer.numberOfLeadingZeros(length), MAX_LENGTH_BUCKET);
+    }
+
+    private record Key(byte compressorId, int bucket, int level) {}
+
+    private static final class Stats {
+
+        private double ratio;
+        private double nanos;
+
+        private boolean initialized;
+
+        synchronized void update(double sampleRatio, long sampleNanos) {
+            if (!initialized) {
+                ratio = sampleRatio;
+                nanos = sampleNanos;
+
+                initialized = true;
+            } else {
+                ratio += (sampleRatio - ratio) * SMOOTHING;
+                nanos += (sampleNanos - nanos) * SMOOTHING;
+            }
+        }
+
+        synchronized double ratio() {
+            return ratio;
+        }
+
+        synchronized long nanos() {
+            return (long) nanos;
+        }
+
+    }
+
+}
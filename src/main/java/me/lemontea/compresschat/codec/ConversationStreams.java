@@ -0,0 +1,354 @@
+package me.lemontea.compresschat.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static me.lemontea.compresschat.codec.MessageCodec.StringCompressor.DECOMPRESSION_SIZE_LIMIT;
+
+/*
+ * Long-lived raw Deflate streams, one per conversation, so every message is compressed against
+ * the history of the previous ones. Messages are separated with SYNC_FLUSH, whose empty stored
+ * block trailer is stripped from the payload and restored by the decoder.
+ *
+ * Payload: stream ID (2 bytes, the first one is never zero), varint of (sequence << 1 | keyframe),
+ * then the compressed data. A keyframe restarts the stream (from the dictionary, if there is one). Decoders only accept
+ * the next sequence number, so a lost or reordered message breaks the stream until the next keyframe.
+ */
+public final class ConversationStreams implements AutoCloseable {
+
+    private static final int KEYFRAME_INTERVAL = 16;
+
+    private static final int KEYFRAME_FLAG = 1;
+
+    private static final int MIN_STREAM_ID = 0x100;
+    private static final int MAX_STREAM_ID = 0x10000;
+
+    private static final int MAX_ENCODER_STREAMS = 8;
+
+    // No sender has more streams than its encoder keeps, and one sending keyframes with ever new stream IDs
+    // only evicts its own streams this way, not the ones of every other conversation.
+    private static final int MAX_DECODER_STREAMS_PER_CONVERSATION = MAX_ENCODER_STREAMS;
+
+    // Inflater state together with its 32 KiB window.
+    private static final int DECODER_SIZE_ESTIMATE = 48 << 10;
+
+    private static final byte[] SYNC_FLUSH_TRAILER = { 0, 0, (byte) 0xFF, (byte) 0xFF };
+
+    private static final int INITIAL_BUF_SIZE = 64;
+
+    private final byte[] dictionary;
+
+    private final int maxDecoderStreams;
+
+    private final LinkedHashMap<String, EncoderStream> encoderStreams = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<DecoderKey, DecoderStream> decoderStreams = new LinkedHashMap<>(16, 0.75f, true);
+
+    private volatile boolean closed;
+
+    public ConversationStreams(byte[] dictionary, long maxDecoderSizeBytes) {
+        this.dictionary = dictionary;
+
+        maxDecoderStreams = (int) Math.max(maxDecoderSizeBytes / DECODER_SIZE_ESTIMATE, 1);
+    }
+
+    byte[] compress(String conversation, String str) {
+        synchronized (encoderStreams) {
+            if (closed)
+                throw new IllegalStateException("Compressor is closed!");
+
+            EncoderStream stream = encoderStreams.get(conversation);
+
+            if (stream == null) {
+                stream = new EncoderStream(ThreadLocalRandom.current().nextInt(MIN_STREAM_ID, MAX_STREAM_ID));
+
+                encoderStreams.put(conversation, stream);
+
+                evictEldest(encoderStreams, MAX_ENCODER_STREAMS, EncoderStream::close);
+            }
+
+            boolean keyframe = stream.messagesSinceKeyframe >= KEYFRAME_INTERVAL;
+
+            try {
+                byte[] result = stream.compress(str, keyframe);
+
+                stream.messagesSinceKeyframe = keyframe ? 1 : stream.messagesSinceKeyframe + 1;
+                stream.sequence++;
+
+                return result;
+            } catch (RuntimeException e) {
+                // The stream state is unknown now, so it has to start over.
+                stream.messagesSinceKeyframe = KEYFRAME_INTERVAL;
+
+                throw e;
+            }
+        }
+    }
+
+    // Makes the next message of the conversation a keyframe. Needed when a compressed message is never sent,
+    // as its sequence number is already taken and decoders only accept the next one.
+    void restart(String conversation) {
+        synchronized (encoderStreams) {
+            EncoderStream stream = encoderStreams.get(conversation);
+
+            if (stream != null)
+                stream.messagesSinceKeyframe = KEYFRAME_INTERVAL;
+        }
+    }
+
+    String decompress(String conversation, ByteBuffer input) {
+        if (input.remaining() < Short.BYTES + 1)
+            throw new IllegalArgumentException("Message is too small!");
+
+        int streamId = input.getShort() & 0xFFFF;
+        long header = readVarLong(input);
+
+        boolean keyframe = (header & KEYFRAME_FLAG) != 0;
+        long sequence = header >>> 1;
+
+        DecoderKey key = new DecoderKey(conversation, streamId);
+
+        synchronized (decoderStreams) {
+            if (closed)
+                throw new IllegalStateException("Compressor is closed!");
+
+            DecoderStream stream = decoderStreams.get(key);
+
+            if (keyframe) {
+                if (stream == null) {
+                    evictEldestOf(conversation);
+
+                    stream = new DecoderStream();
+
+                    decoderStreams.put(key, stream);
+
+                    evictEldest(decoderStreams, maxDecoderStreams, DecoderStream::close);
+                }
+            } else if (stream == null || sequence != stream.nextSequence) {
+                // Older messages are duplicates, but a gap means the history is gone until the next keyframe.
+                if (stream != null && sequence > stream.nextSequence)
+                    decoderStreams.remove(key).close();
+
+                throw new IllegalArgumentException("Missing earlier messages!");
+            }
+
+            try {
+                String result = stream.decompress(input, keyframe);
+
+                stream.nextSequence = sequence + 1;
+
+                return result;
+            } catch (RuntimeException e) {
+                decoderStreams.remove(key).close();
+
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        synchronized (encoderStreams) {
+            encoderStreams.values().forEach(EncoderStream::close);
+            encoderStreams.clear();
+        }
+
+        synchronized (decoderStreams) {
+            decoderStreams.values().forEach(DecoderStream::close);
+            decoderStreams.clear();
+        }
+    }
+
+    // Called with the decoder streams locked, before another stream of the conversation is added.
+    private void evictEldestOf(String conversation) {
+        Map.Entry<DecoderKey, DecoderStream> eldest = null;
+
+        int streams = 0;
+
+        for (Map.Entry<DecoderKey, DecoderStream> entry : decoderStreams.entrySet()) {
+            if (Objects.equals(entry.getKey().conversation(), conversation)) {
+                if (eldest == null)
+                    eldest = entry;
+
+                streams++;
+            }
+        }
+
+        if (streams >= MAX_DECODER_STREAMS_PER_CONVERSATION)
+            decoderStreams.remove(eldest.getKey()).close();
+    }
+
+    private static <K, V> void evictEldest(LinkedHashMap<K, V> streams, int maxStreams, Consumer<V> closer) {
+        Iterator<Map.Entry<K, V>> iterator = streams.entrySet().iterator();
+
+        while (streams.size() > maxStreams && iterator.hasNext()) {
+            Map.Entry<K, V> eldest = iterator.next();
+
+            iterator.remove();
+
+            closer.accept(eldest.getValue());
+        }
+    }
+
+    private static void writeVarLong(ByteBuffer output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.put((byte) ((value & 0x7F) | 0x80));
+
+            value >>>= 7;
+        }
+
+        output.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer input) {
+        long value = 0;
+
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            if (!input.hasRemaining())
+                throw new IllegalArgumentException("Malformed message!");
+
+            byte b = input.get();
+
+            value |= (long) (b & 0x7F) << shift;
+
+            if (b >= 0)
+                return value;
+        }
+
+        throw new IllegalArgumentException("Malformed message!");
+    }
+
+    private final class EncoderStream {
+
+        private final int streamId;
+
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+
+        private long sequence;
+        private int messagesSinceKeyframe = KEYFRAME_INTERVAL;
+
+        private EncoderStream(int streamId) {
+            this.streamId = streamId;
+        }
+
+        private byte[] compress(String str, boolean keyframe) {
+            if (keyframe) {
+                deflater.reset();
+
+                if (dictionary != null)
+                    deflater.setDictionary(dictionary);
+            }
+
+            byte[] data = str.getBytes(StandardCharsets.UTF_8);
+
+            ByteBuffer output = ByteBuffer.allocate(Math.max(data.length * 2, INITIAL_BUF_SIZE));
+
+            output.putShort((short) streamId);
+
+            writeVarLong(output, (sequence << 1) | (keyframe ? KEYFRAME_FLAG : 0));
+
+            deflater.setInput(data);
+
+            // With SYNC_FLUSH the output is complete only once the deflater leaves some of the buffer unused.
+            while (true) {
+                deflater.deflate(output, Deflater.SYNC_FLUSH);
+
+                if (output.hasRemaining())
+                    break;
+
+                output = ByteBuffer.allocate(output.capacity() * 2).put(output.flip());
+            }
+
+            int length = output.position() - SYNC_FLUSH_TRAILER.length;
+
+            if (!Arrays.equals(output.array(), length, output.position(), SYNC_FLUSH_TRAILER, 0, SYNC_FLUSH_TRAILER.length))
+                throw new IllegalStateException("Unexpected flush trailer!");
+
+            return Arrays.copyOf(output.array(), length);
+        }
+
+        private void close() {
+            deflater.end();
+        }
+
+    }
+
+    private final class DecoderStream {
+
+        private final Inflater inflater = new Inflater(true);
+
+        private long nextSequence;
+
+        private String decompress(ByteBuffer input, boolean keyframe) {
+            if (keyframe) {
+                inflater.reset();
+
+                if (dictionary != null)
+                    inflater.setDictionary(dictionary);
+            }
+
+            byte[] compressed = new byte[input.remaining() + SYNC_FLUSH_TRAILER.length];
+
+            input.get(compressed, 0, input.remaining());
+
+            System.arraycopy(SYNC_FLUSH_TRAILER, 0, compressed, compressed.length - SYNC_FLUSH_TRAILER.length, SYNC_FLUSH_TRAILER.length);
+
+            inflater.setInput(compressed);
+
+            byte[] decompressed = new byte[INITIAL_BUF_SIZE];
+
+            int bytesRead = 0;
+
+            while (true) {
+                if (bytesRead == decompressed.length)
+                    decompressed = Arrays.copyOf(decompressed, Math.min(decompressed.length * 2, DECOMPRESSION_SIZE_LIMIT + 1));
+
+                int inflated;
+
+                try {
+                    inflated = inflater.inflate(decompressed, bytesRead, decompressed.length - bytesRead);
+                } catch (DataFormatException e) {
+                    throw new IllegalArgumentException("Unable to decompress contents!", e);
+                }
+
+                bytesRead += inflated;
+
+                if (bytesRead > DECOMPRESSION_SIZE_LIMIT)
+                    throw new IllegalArgumentException("Message is too long!");
+
+                // A final block would end the conversation stream, so it is never written.
+                if (inflater.finished() || inflater.needsDictionary())
+                    throw new IllegalArgumentException("Malformed message!");
+
+                if (bytesRead < decompressed.length) {
+                    if (inflater.needsInput())
+                        break;
+
+                    if (inflated == 0)
+                        throw new IllegalArgumentException("Malformed message!");
+                }
+            }
+
+            return new String(decompressed, 0, bytesRead, StandardCharsets.UTF_8);
+        }
+
+        private void close() {
+            inflater.end();
+        }
+
+    }
+
+    private record DecoderKey(String conversation, int streamId) {}
+
+}
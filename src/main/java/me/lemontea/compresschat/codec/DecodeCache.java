@@ -0,0 +1,168 @@
+package me.lemontea.compresschat.codec;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Bounded LRU cache of decoded segments, keyed by the encoded segment text.
+ *
+ * Concurrent misses on the same segment wait for the one decode in flight, so a spammed line in a
+ * parallel batch is only decoded once. Malformed payloads (IllegalArgumentException) are cached as
+ * well; other failures, e.g. a compressor that's unavailable or closed, aren't the payload's fault
+ * and are only shared with the waiting callers. The size limit is an estimate of the retained heap in bytes.
+ */
+public final class DecodeCache {
+
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long maxSizeBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long sizeBytes;
+
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public DecodeCache(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    String get(String encoded, Decoder decoder) {
+        Entry entry = lookup(encoded);
+
+        if (entry != null) {
+            hits.increment();
+
+            return entry.unwrap();
+        }
+
+        CompletableFuture<Entry> decode = new CompletableFuture<>();
+        CompletableFuture<Entry> pending = inFlight.putIfAbsent(encoded, decode);
+
+        if (pending != null) {
+            hits.increment();
+
+            try {
+                return pending.join().unwrap();
+            } catch (CompletionException e) {
+                throw (e.getCause() instanceof RuntimeException cause) ? cause : e;
+            }
+        }
+
+        try {
+            // The previous decode of this segment may have finished since the lookup.
+            entry = lookup(encoded);
+
+            if (entry != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+
+                entry = decode(encoded, decoder);
+
+                put(encoded, entry);
+            }
+
+            decode.complete(entry);
+
+            return entry.unwrap();
+        } catch (RuntimeException e) {
+            decode.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            inFlight.remove(encoded, decode);
+
+            // Waiting callers must not hang on anything else, e.g. an Error.
+            decode.completeExceptionally(new IllegalStateException("Unable to decode message!"));
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    private synchronized Entry lookup(String encoded) {
+        return entries.get(encoded);
+    }
+
+    private static Entry decode(String encoded, Decoder decoder) {
+        try {
+            return new Entry(decoder.decode(encoded), null);
+        } catch (IllegalArgumentException e) {
+            // Some failures have no message, e.g. a dictionary checksum mismatch in Inflater.setDictionary().
+            return new Entry(null, Objects.toString(e.getMessage(), e.getClass().getSimpleName()));
+        }
+    }
+
+    private synchronized void put(String encoded, Entry entry) {
+        long entrySize = entrySize(encoded, entry);
+
+        if (entrySize > maxSizeBytes)
+            return;
+
+        Entry previous = entries.put(encoded, entry);
+
+        if (previous != null)
+            sizeBytes -= entrySize(encoded, previous);
+
+        sizeBytes += entrySize;
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+        while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+
+            sizeBytes -= entrySize(eldest.getKey(), eldest.getValue());
+
+            iterator.remove();
+        }
+    }
+
+    private static long entrySize(String encoded, Entry entry) {
+        String value = (entry.error() != null) ? entry.error() : entry.decoded();
+
+        return ENTRY_OVERHEAD + 2L * encoded.length() + ((value != null) ? 2L * value.length() : 0);
+    }
+
+    @FunctionalInterface
+    interface Decoder {
+
+        String decode(String encoded);
+
+    }
+
+    private record Entry(String decoded, String error) {
+
+        String unwrap() {
+            if (error != null)
+                throw new IllegalArgumentException(error);
+
+            return decoded;
+        }
+
+    }
+
+}
@@ -0,0 +1,66 @@
+package me.lemontea.compresschat.codec;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * SIMD validation and mapping of alphabet chars, for alphabets described as a few runs of consecutive
+ * chars. Every lane is checked against every run, so this only pays off while there are few of them.
+ *
+ * Needs the jdk.incubator.vector module (--add-modules jdk.incubator.vector). Without it, this class
+ * fails to initialize, and Alphabet keeps to its scalar loops.
+ */
+final class DigitVectors {
+
+    private static final VectorSpecies<Short> CHARS = ShortVector.SPECIES_PREFERRED;
+
+    // Same shape as CHARS, so every char vector widens into two digit vectors.
+    private static final VectorSpecies<Integer> DIGITS = IntVector.SPECIES_PREFERRED;
+
+    private DigitVectors() {}
+
+    static void load() {}
+
+    static int laneCount() {
+        return CHARS.length();
+    }
+
+    // Checks whole vectors of the first count chars against the runs and writes their digits, i.e. every char
+    // minus the offset of its run, from digitsOffset on. Returns how many chars were mapped, the rest is left to the caller.
+    static int toDigits(char[] chars, int count, char[] runStarts, char[] runEnds, char[] runOffsets, int[] digits, int digitsOffset) {
+        int bound = CHARS.loopBound(count);
+        int i = 0;
+
+        for (; i < bound; i += CHARS.length()) {
+            ShortVector vector = ShortVector.fromCharArray(CHARS, chars, i);
+
+            VectorMask<Short> valid = CHARS.maskAll(false);
+            ShortVector mapped = ShortVector.zero(CHARS);
+
+            for (int run = 0; run < runStarts.length; run++) {
+                VectorMask<Short> inRun = inRun(vector, runStarts[run], runEnds[run]);
+
+                valid = valid.or(inRun);
+                mapped = mapped.blend(vector.sub((short) runOffsets[run]), inRun);
+            }
+
+            if (!valid.allTrue())
+                throw new IllegalArgumentException("Unexpected character!");
+
+            // Digits above Short.MAX_VALUE come out negative from the sign extension, hence the mask.
+            ((IntVector) mapped.convertShape(VectorOperators.S2I, DIGITS, 0)).and(0xFFFF).intoArray(digits, digitsOffset + i);
+            ((IntVector) mapped.convertShape(VectorOperators.S2I, DIGITS, 1)).and(0xFFFF).intoArray(digits, digitsOffset + i + DIGITS.length());
+        }
+
+        return i;
+    }
+
+    private static VectorMask<Short> inRun(ShortVector vector, char runStart, char runEnd) {
+        return vector.compare(VectorOperators.UNSIGNED_GE, (short) runStart)
+                .and(vector.compare(VectorOperators.UNSIGNED_LE, (short) runEnd));
+    }
+
+}
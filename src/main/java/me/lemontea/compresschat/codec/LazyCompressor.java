@@ -0,0 +1,66 @@
+package me.lemontea.compresschat.codec;
+
+import java.util.function.Supplier;
+
+/*
+ * Creates its compressor on first use. A compressor that fails to initialize, e.g. because its
+ * native library is missing, stays unavailable instead of failing the whole codec.
+ */
+final class LazyCompressor implements AutoCloseable {
+
+    private final Supplier<? extends MessageCodec.StringCompressor> factory;
+
+    private MessageCodec.StringCompressor compressor;
+    private Throwable failure;
+
+    private boolean closed;
+
+    private volatile boolean initialized;
+
+    LazyCompressor(Supplier<? extends MessageCodec.StringCompressor> factory) {
+        this.factory = factory;
+    }
+
+    // Returns null if the compressor is unavailable.
+    MessageCodec.StringCompressor get() {
+        if (!initialized)
+            initialize();
+
+        return compressor;
+    }
+
+    MessageCodec.StringCompressor getAvailable() {
+        MessageCodec.StringCompressor available = get();
+
+        if (available == null)
+            throw new IllegalStateException("Compressor is unavailable!", failure);
+
+        return available;
+    }
+
+    private synchronized void initialize() {
+        if (initialized)
+            return;
+
+        if (closed) {
+            failure = new IllegalStateException("Compressor is closed!");
+        } else {
+            try {
+                compressor = factory.get();
+            } catch (RuntimeException | LinkageError e) {
+                failure = e;
+            }
+        }
+
+        initialized = true;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+
+        if (compressor != null)
+            compressor.close();
+    }
+
+}
@@ -0,0 +1,79 @@
+package me.lemontea.compresschat.codec;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Lock-free histogram of non-negative values with log-linear buckets: every power of two is split
+ * into 4 sub-buckets, so percentiles are reported as a bucket upper bound at most 25% above the value.
+ */
+public final class LogHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = bucketOf(Long.MAX_VALUE) + 1;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+    public LogHistogram() {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    public void record(long value) {
+        buckets[bucketOf(Math.max(value, 0))].increment();
+    }
+
+    public long getCount() {
+        long count = 0;
+
+        for (LongAdder bucket : buckets)
+            count += bucket.sum();
+
+        return count;
+    }
+
+    // Returns the upper bound of the bucket holding the given percentile, or 0 if nothing was recorded.
+    public long getPercentile(double percentile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+
+            if (seen >= rank && counts[i] > 0)
+                return upperBoundOf(i);
+        }
+
+        return 0;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+
+        return lowerBound + (1L << shift) - 1;
+    }
+
+}
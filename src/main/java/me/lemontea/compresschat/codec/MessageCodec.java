@@ -2,175 +2,992 @@ package me.lemontea.compresschat.codec;
 
 import me.lemontea.compresschat.codec.compressor.BrotliCompressor;
 import me.lemontea.compresschat.codec.compressor.DeflateCompressor;
+import me.lemontea.compresschat.codec.compressor.StoredCompressor;
+import me.lemontea.compresschat.codec.compressor.ZstdCompressor;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.function.IntPredicate;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
-public final class MessageCodec {
+public final class MessageCodec implements AutoCloseable {
+
+    // The server rejects longer chat messages.
+    public static final int MAX_MESSAGE_LENGTH = 256;
 
     private static final String COMPRESSED_MSG_START = "$!";
     private static final String COMPRESSED_MSG_END   = "!$";
 
-    private static final Pattern COMPRESSED_MSG_PATTERN =
-            Pattern.compile(Pattern.quote(COMPRESSED_MSG_START) + "(.+?)" + Pattern.quote(COMPRESSED_MSG_END));
+    // Headers of parts sharing one compressed stream. Like the block format header, they are never alphabet digits.
+    private static final char SHARED_PART      = '\uE020';
+    private static final char SHARED_LAST_PART = '\uE021';
+
+    // Header of parts compressed with a per-conversation stream, see ConversationStreams.
+    private static final char STREAM_PART = '\uE030';
+
+    // Compressed parts never contain line terminators, so one can't be mistaken for part of the contents.
+    private static final char SHARED_PART_SEPARATOR = '\n';
+
+    private static final long DECODE_CACHE_SIZE = 1 << 20;
+
+    private static final long STREAM_DECODERS_SIZE = 4 << 20;
+
+    private static final long NO_SEGMENT = -1;
+
+    private static final int DECODED_SIZE_ESTIMATE = 2;
+
+    // Smaller batches are decoded on the calling thread, as forking costs more than it saves there.
+    private static final int PARALLEL_DECODE_THRESHOLD = 8;
+
+    // Compressor IDs, stream headers and the framing of incompressible data all fit well within this.
+    private static final int MAX_PAYLOAD_OVERHEAD = 64;
+
+    // Payloads this large are written in the block format, where v1's superlinear conversion starts to hurt.
+    private static final int BLOCK_FORMAT_THRESHOLD = 1 << 10;
+
+    // Parts that don't get any smaller when compressed are sent with this one instead.
+    private static final byte STORED_COMPRESSOR_ID = 5;
 
-    private final NavigableMap<Byte, StringCompressor> compressors;
+    // Only picked when asked for, as every receiver needs its own copy of the library to read such parts.
+    private static final byte ZSTD_COMPRESSOR_ID = 6;
 
-    private final Map<BigInteger, Character> alphabetMap;
-    private final Map<Character, BigInteger> invAlphabetMap;
+    // Time a single compress call may take before weaker levels are used, unless a selection deadline is given.
+    private static final long DEFAULT_LATENCY_TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
 
-    private final BigInteger base;
+    private final NavigableMap<Byte, LazyCompressor> compressors;
 
-    private MessageCodec(Map<Byte, StringCompressor> compressors, char fromChar, char toChar, IntPredicate charFilter) {
+    // Compressors that only decode parts, and are never used to encode them.
+    private final Set<Byte> decodeOnlyCompressorIds;
+
+    private final int[] maxEncodedLengths;
+
+    private final DecodeCache decodeCache;
+
+    private final CodecMetrics metrics = new CodecMetrics();
+
+    private final ConversationStreams conversationStreams;
+
+    private final Executor selectionExecutor;
+    private final long selectionDeadlineNanos;
+
+    private final CompressionPolicy policy;
+
+    private MessageCodec(Map<Byte, Supplier<StringCompressor>> compressors,
+                         Set<Byte> decodeOnlyCompressorIds,
+                         Executor selectionExecutor,
+                         Duration selectionDeadline,
+                         boolean adaptive,
+                         DecodeCache decodeCache,
+                         ConversationStreams conversationStreams) {
         this.compressors = new TreeMap<>(Byte::compareUnsigned);
 
-        for (Map.Entry<Byte, StringCompressor> entry : compressors.entrySet()) {
+        for (Map.Entry<Byte, Supplier<StringCompressor>> entry : compressors.entrySet()) {
             if (entry.getKey() == 0)
                 throw new IllegalArgumentException("Compressor ID should not be equal to zero!");
 
-            this.compressors.put(entry.getKey(), entry.getValue());
+            this.compressors.put(entry.getKey(), new LazyCompressor(entry.getValue()));
         }
 
-        if (compressors.isEmpty())
+        if (compressors.isEmpty() || decodeOnlyCompressorIds.containsAll(compressors.keySet()))
             throw new IllegalArgumentException("No string compressors defined!");
 
-        alphabetMap = new HashMap<>();
-        invAlphabetMap = new HashMap<>();
-
-        int charIdx = 0;
+        this.decodeOnlyCompressorIds = decodeOnlyCompressorIds;
 
-        for (int charCode = fromChar; charCode <= toChar; charCode++) {
-            if (charFilter.test(charCode)) {
-                BigInteger idxBigInt = BigInteger.valueOf(charIdx);
+        this.maxEncodedLengths = new int[AlphabetProfile.values().length];
 
-                alphabetMap.put(idxBigInt, (char) charCode);
-                invAlphabetMap.put((char) charCode, idxBigInt);
+        // The block format is never denser than the v1 one, so this bounds both.
+        for (AlphabetProfile profile : AlphabetProfile.values())
+            maxEncodedLengths[profile.ordinal()] = profile.blockCodec().encodedLength(StringCompressor.DECOMPRESSION_SIZE_LIMIT + MAX_PAYLOAD_OVERHEAD);
 
-                charIdx++;
-            }
-        }
+        this.selectionExecutor = selectionExecutor;
+        this.selectionDeadlineNanos = selectionDeadline.toNanos();
 
-        if (charIdx < 2)
-            throw new IllegalArgumentException("The resulting alphabet is too small!");
+        this.policy = adaptive
+                ? new CompressionPolicy(selectionDeadlineNanos > 0 ? selectionDeadlineNanos : DEFAULT_LATENCY_TARGET_NANOS)
+                : CompressionPolicy.pinned();
 
-        base = BigInteger.valueOf(charIdx);
+        this.decodeCache = decodeCache;
+        this.conversationStreams = conversationStreams;
     }
 
     public static MessageCodec createCodec() {
+        return createCodec(null, Duration.ZERO, false);
+    }
+
+    // Runs every compressor on the given executor and keeps the shortest result available after the deadline.
+    public static MessageCodec createBestOfCodec(Executor selectionExecutor, Duration selectionDeadline) {
+        return createBestOfCodec(selectionExecutor, selectionDeadline, false);
+    }
+
+    // Zstd parts are always decoded, but only encoded when enabled here.
+    public static MessageCodec createBestOfCodec(Executor selectionExecutor, Duration selectionDeadline, boolean zstdEncoding) {
+        return createCodec(Objects.requireNonNull(selectionExecutor), selectionDeadline, zstdEncoding);
+    }
+
+    // Compresses with the given compressor only, always at its strongest level, e.g. to compare compressors on a corpus;
+    // it only decodes its own parts.
+    public static MessageCodec createSingleCompressorCodec(byte compressorId) {
+        return createSingleCompressorCodec(compressorId, DECODE_CACHE_SIZE);
+    }
+
+    // A decode cache of zero bytes holds nothing, e.g. for benchmarks that must measure every decode.
+    public static MessageCodec createSingleCompressorCodec(byte compressorId, long decodeCacheSizeBytes) {
+        Supplier<StringCompressor> compressor = createCompressors().get(compressorId);
+
+        if (compressor == null)
+            throw new IllegalArgumentException("Unknown compressor!");
+
         return new MessageCodec(
-                Map.of(
-                        (byte) 1, new DeflateCompressor(),
-                        (byte) 2, new BrotliCompressor()
-                ),
-                '\u0021',
-                Character.MAX_VALUE,
-                charCode -> {
-                    int charType = Character.getType((char) charCode);
-
-                    return charCode != 0x7F
-                            && charCode != 0xA7
-                            && charType != Character.UNASSIGNED
-                            && charType != Character.PRIVATE_USE
-                            && charType != Character.SURROGATE;
-                }
+                Map.of(compressorId, compressor),
+                Set.of(),
+                null,
+                Duration.ZERO,
+                false,
+                new DecodeCache(decodeCacheSizeBytes),
+                new ConversationStreams(null, STREAM_DECODERS_SIZE)
         );
     }
 
-    public String encodeMessage(String msg) {
-        return COMPRESSED_MSG_PATTERN.matcher(msg).replaceAll(
-                matchResult -> Matcher.quoteReplacement(
-                        COMPRESSED_MSG_START
-                                + encode(matchResult.group(1))
-                                + COMPRESSED_MSG_END
-                )
+    // IDs of the compressors every codec created here supports, in ascending order.
+    public static List<Byte> getCompressorIds() {
+        List<Byte> compressorIds = new ArrayList<>(createCompressors().keySet());
+
+        compressorIds.sort(Byte::compareUnsigned);
+
+        return compressorIds;
+    }
+
+    private static MessageCodec createCodec(Executor selectionExecutor, Duration selectionDeadline, boolean zstdEncoding) {
+        return new MessageCodec(
+                createCompressors(),
+                zstdEncoding ? Set.of() : Set.of(ZSTD_COMPRESSOR_ID),
+                selectionExecutor,
+                selectionDeadline,
+                true,
+                new DecodeCache(DECODE_CACHE_SIZE),
+                new ConversationStreams(null, STREAM_DECODERS_SIZE)
         );
     }
 
+    private static Map<Byte, Supplier<StringCompressor>> createCompressors() {
+        // IDs 3, 4 and 7 are reserved for the chat dictionary compressors (Deflate, Brotli and Zstd). They are only
+        // registered once a dictionary trained on a real chat corpus ships, since that dictionary can never change again.
+        // Compressors are created on first use, and the Brotli and Zstd ones stay disabled if their library is missing or too old.
+        Map<Byte, Supplier<StringCompressor>> compressors = new HashMap<>();
+
+        compressors.put((byte) 1, DeflateCompressor::new);
+        compressors.put((byte) 2, BrotliCompressor::new);
+        compressors.put(STORED_COMPRESSOR_ID, StoredCompressor::new);
+        compressors.put(ZSTD_COMPRESSOR_ID, ZstdCompressor::new);
+
+        return compressors;
+    }
+
+    public String encodeMessage(String msg) {
+        return encodeMessage(msg, false);
+    }
+
+    // With a shared context all parts are compressed as a single stream, which is then split between them.
+    public String encodeMessage(String msg, boolean sharedContext) {
+        long segment = findSegment(msg, 0);
+
+        if (segment == NO_SEGMENT)
+            return msg;
+
+        List<Long> segments = findSegments(msg, segment);
+
+        if (sharedContext && segments.size() > 1)
+            return encodeShared(msg, segments);
+
+        StringBuilder result = new StringBuilder(msg.length());
+
+        int contentsLength = contentsLength(segments);
+        int remainingLength = MAX_MESSAGE_LENGTH - (msg.length() - contentsLength);
+
+        int copiedIdx = 0;
+
+        for (long partSegment : segments) {
+            int startIdx = segmentStart(partSegment);
+            int endIdx = segmentEnd(partSegment);
+
+            int partLength = endIdx - startIdx - COMPRESSED_MSG_START.length();
+
+            String content = msg.substring(startIdx + COMPRESSED_MSG_START.length(), endIdx);
+            String encoded = encode(content, partBudget(remainingLength, partLength, contentsLength));
+
+            result.append(msg, copiedIdx, startIdx)
+                    .append(COMPRESSED_MSG_START)
+                    .append(encoded)
+                    .append(COMPRESSED_MSG_END);
+
+            remainingLength -= encoded.length();
+            contentsLength -= partLength;
+
+            copiedIdx = endIdx + COMPRESSED_MSG_END.length();
+        }
+
+        return result.append(msg, copiedIdx, msg.length()).toString();
+    }
+
+    // Compresses every part with the long-lived stream of the conversation, in the order of the calls.
+    // Throws if the message doesn't fit, as it could never be sent.
+    public String encodeStreamMessage(String msg, String conversation) {
+        long segment = findSegment(msg, 0);
+
+        if (segment == NO_SEGMENT)
+            return msg;
+
+        try {
+            String encoded = encodeStreamParts(msg, conversation, findSegments(msg, segment));
+
+            if (encoded.length() > MAX_MESSAGE_LENGTH)
+                throw new IllegalArgumentException("Message is too long!");
+
+            return encoded;
+        } catch (RuntimeException e) {
+            // The stream already went past the parts of this message, which will never arrive.
+            conversationStreams.restart(conversation);
+
+            throw e;
+        }
+    }
+
+    private String encodeStreamParts(String msg, String conversation, List<Long> segments) {
+        StringBuilder result = new StringBuilder(msg.length());
+
+        int contentsLength = contentsLength(segments);
+        int remainingLength = MAX_MESSAGE_LENGTH - (msg.length() - contentsLength) - segments.size();
+
+        int copiedIdx = 0;
+
+        for (long partSegment : segments) {
+            int startIdx = segmentStart(partSegment);
+            int endIdx = segmentEnd(partSegment);
+
+            int partLength = endIdx - startIdx - COMPRESSED_MSG_START.length();
+
+            byte[] payload = conversationStreams.compress(conversation, msg.substring(startIdx + COMPRESSED_MSG_START.length(), endIdx));
+
+            String encoded = encodeBytes(payload, payload.length, partBudget(remainingLength, partLength, contentsLength));
+
+            result.append(msg, copiedIdx, startIdx)
+                    .append(COMPRESSED_MSG_START)
+                    .append(STREAM_PART)
+                    .append(encoded)
+                    .append(COMPRESSED_MSG_END);
+
+            remainingLength -= encoded.length();
+            contentsLength -= partLength;
+
+            copiedIdx = endIdx + COMPRESSED_MSG_END.length();
+        }
+
+        return result.append(msg, copiedIdx, msg.length()).toString();
+    }
+
+    // Creates every compressor up front, so none of them is initialized on a hot path later.
+    public void warmUp() {
+        for (LazyCompressor compressor : compressors.values())
+            compressor.get();
+    }
+
+    public CodecMetrics getMetrics() {
+        return metrics;
+    }
+
+    public DecodeCache getDecodeCache() {
+        return decodeCache;
+    }
+
+    public boolean hasCompressedParts(String msg) {
+        return findSegment(msg, 0) != NO_SEGMENT;
+    }
+
+    // Stream parts have to be decoded in the order they were received.
+    public boolean hasStreamParts(String msg) {
+        long segment = findSegment(msg, 0);
+
+        while (segment != NO_SEGMENT) {
+            if (msg.charAt(segmentStart(segment) + COMPRESSED_MSG_START.length()) == STREAM_PART)
+                return true;
+
+            segment = findSegment(msg, segmentEnd(segment) + COMPRESSED_MSG_END.length());
+        }
+
+        return false;
+    }
+
+    // Chars between the marks of all compressed parts, the only ones encoding changes.
+    public int getCompressedContentsLength(String msg) {
+        long segment = findSegment(msg, 0);
+
+        if (segment == NO_SEGMENT)
+            return 0;
+
+        return contentsLength(findSegments(msg, segment));
+    }
+
     public String decodeMessage(String msg) {
-        return COMPRESSED_MSG_PATTERN.matcher(msg).replaceAll(matchResult -> {
-            try {
-                return Matcher.quoteReplacement(decode(matchResult.group(1)));
-            } catch (RuntimeException e) {
-                return Matcher.quoteReplacement("!" + e.getMessage() + "!");
+        return decodeMessage(msg, null);
+    }
+
+    // The conversation identifies the sender; stream parts from unknown senders share a null conversation.
+    public String decodeMessage(String msg, String conversation) {
+        long segment = findSegment(msg, 0);
+
+        if (segment == NO_SEGMENT)
+            return msg;
+
+        // Decoded parts are usually longer than the encoded ones.
+        StringBuilder result = new StringBuilder(msg.length() * DECODED_SIZE_ESTIMATE);
+
+        int copiedIdx = 0;
+
+        do {
+            int startIdx = segmentStart(segment);
+            int endIdx = segmentEnd(segment);
+
+            result.append(msg, copiedIdx, startIdx);
+
+            if (isSharedPart(msg, segment)) {
+                copiedIdx = decodeShared(msg, segment, result);
+            } else if (msg.charAt(startIdx + COMPRESSED_MSG_START.length()) == STREAM_PART) {
+                // Never cached: the same text decodes differently depending on the stream history.
+                try {
+                    ByteBuffer payload = decodeBytes(msg.substring(startIdx + COMPRESSED_MSG_START.length() + 1, endIdx));
+
+                    result.append(conversationStreams.decompress(conversation, payload));
+                } catch (RuntimeException e) {
+                    result.append('!').append(Objects.toString(e.getMessage(), e.getClass().getSimpleName())).append('!');
+                }
+
+                copiedIdx = endIdx + COMPRESSED_MSG_END.length();
+            } else {
+                try {
+                    result.append(decodeCache.get(msg.substring(startIdx + COMPRESSED_MSG_START.length(), endIdx), this::decode));
+                } catch (RuntimeException e) {
+                    result.append('!').append(e.getMessage()).append('!');
+                }
+
+                copiedIdx = endIdx + COMPRESSED_MSG_END.length();
             }
-        });
+
+            segment = findSegment(msg, copiedIdx);
+        } while (segment != NO_SEGMENT);
+
+        return result.append(msg, copiedIdx, msg.length()).toString();
+    }
+
+    // Decodes a batch of messages, e.g. a burst of incoming chat, in the common ForkJoin pool and returns them in order,
+    // along with the time each one took. Compressors pool their native state per concurrent call, so workers don't contend for a single context.
+    public List<DecodedMessage> decodeMessages(List<ReceivedMessage> msgs) {
+        DecodedMessage[] decoded = new DecodedMessage[msgs.size()];
+
+        // Stream parts depend on the messages before them, so those messages are decoded one by one, in order.
+        for (int i = 0; i < decoded.length; i++) {
+            if (hasStreamParts(msgs.get(i).msg()))
+                decoded[i] = decodeTimed(msgs.get(i));
+        }
+
+        IntStream indices = IntStream.range(0, decoded.length).filter(i -> decoded[i] == null);
+
+        if (decoded.length >= PARALLEL_DECODE_THRESHOLD)
+            indices = indices.parallel();
+
+        indices.forEach(i -> decoded[i] = decodeTimed(msgs.get(i)));
+
+        return Arrays.asList(decoded);
+    }
+
+    private DecodedMessage decodeTimed(ReceivedMessage msg) {
+        long startTime = System.nanoTime();
+
+        String decoded = decodeMessage(msg.msg(), msg.conversation());
+
+        return new DecodedMessage(decoded, System.nanoTime() - startTime);
     }
 
-    private String encode(String msg) {
-        Map.Entry<Byte, StringCompressor> compressorEntry = compressors.lastEntry();
+    private String encodeShared(String msg, List<Long> segments) {
+        StringBuilder joined = new StringBuilder(msg.length());
+
+        for (long segment : segments) {
+            if (!joined.isEmpty())
+                joined.append(SHARED_PART_SEPARATOR);
+
+            joined.append(msg, segmentStart(segment) + COMPRESSED_MSG_START.length(), segmentEnd(segment));
+        }
+
+        // Every part gets a header char on top of its slice of the encoded stream.
+        int plainLength = msg.length() - contentsLength(segments);
+
+        String encoded = encode(joined.toString(), MAX_MESSAGE_LENGTH - plainLength - segments.size());
 
-        byte[] compressed = compressorEntry.getValue().compress(msg);
-        byte[] encoded = new byte[compressed.length + 1];
+        // Each part gets a slice of the encoded stream proportional to its own length.
+        long totalLength = joined.length() - (segments.size() - 1);
+        long partsLength = 0;
 
-        encoded[0] = compressorEntry.getKey();
+        StringBuilder result = new StringBuilder(msg.length() + encoded.length());
 
-        System.arraycopy(compressed, 0, encoded, 1, compressed.length);
+        int copiedIdx = 0;
+        int encodedIdx = 0;
 
-        StringBuilder result = new StringBuilder();
-        BigInteger msgInt = new BigInteger(1, encoded);
+        for (int i = 0; i < segments.size(); i++) {
+            long segment = segments.get(i);
 
-        while (!msgInt.equals(BigInteger.ZERO)) {
-            BigInteger[] divisionResult = msgInt.divideAndRemainder(base);
+            int startIdx = segmentStart(segment);
+            int endIdx = segmentEnd(segment);
 
-            result.append(alphabetMap.get(divisionResult[1]));
+            partsLength += endIdx - startIdx - COMPRESSED_MSG_START.length();
 
-            msgInt = divisionResult[0];
+            boolean last = (i == segments.size() - 1);
+            int encodedEndIdx = last ? encoded.length() : (int) (encoded.length() * partsLength / totalLength);
+
+            result.append(msg, copiedIdx, startIdx)
+                    .append(COMPRESSED_MSG_START)
+                    .append(last ? SHARED_LAST_PART : SHARED_PART)
+                    .append(encoded, encodedIdx, encodedEndIdx)
+                    .append(COMPRESSED_MSG_END);
+
+            copiedIdx = endIdx + COMPRESSED_MSG_END.length();
+            encodedIdx = encodedEndIdx;
         }
 
-        return result.toString();
+        return result.append(msg, copiedIdx, msg.length()).toString();
     }
 
-    private String decode(String msg) {
-        BigInteger msgInt = BigInteger.ZERO;
-        BigInteger k = BigInteger.ONE;
+    // Decodes the group of shared parts starting with the given one and returns the index right after the group.
+    private int decodeShared(String msg, long segment, StringBuilder result) {
+        List<Long> segments = new ArrayList<>();
+        StringBuilder joined = new StringBuilder();
+
+        boolean complete = false;
+
+        while (segment != NO_SEGMENT && isSharedPart(msg, segment)) {
+            int contentIdx = segmentStart(segment) + COMPRESSED_MSG_START.length();
 
-        for (char ch : msg.toCharArray()) {
-            BigInteger charIdx = invAlphabetMap.get(ch);
+            segments.add(segment);
+            joined.append(msg, contentIdx + 1, segmentEnd(segment));
+
+            if (msg.charAt(contentIdx) == SHARED_LAST_PART) {
+                complete = true;
+
+                break;
+            }
+
+            segment = findSegment(msg, segmentEnd(segment) + COMPRESSED_MSG_END.length());
+        }
 
-            if (charIdx == null)
-                throw new IllegalArgumentException("Unexpected character!");
+        String[] parts = null;
+        String error = null;
 
-            msgInt = msgInt.add(k.multiply(charIdx));
+        try {
+            if (!complete)
+                throw new IllegalArgumentException("Message is incomplete!");
 
-            k = k.multiply(base);
+            parts = splitShared(decodeCache.get(joined.toString(), this::decode), segments.size());
+        } catch (RuntimeException e) {
+            error = e.getMessage();
         }
 
-        byte[] encoded = msgInt.toByteArray();
+        int copiedIdx = segmentStart(segments.get(0));
 
-        if (encoded.length == 0)
+        for (int i = 0; i < segments.size(); i++) {
+            result.append(msg, copiedIdx, segmentStart(segments.get(i)));
+
+            if (parts != null) {
+                result.append(parts[i]);
+            } else {
+                result.append('!').append(error).append('!');
+            }
+
+            copiedIdx = segmentEnd(segments.get(i)) + COMPRESSED_MSG_END.length();
+        }
+
+        return copiedIdx;
+    }
+
+    private static String[] splitShared(String decoded, int count) {
+        String[] parts = new String[count];
+
+        int partIdx = 0;
+
+        for (int i = 0; i < count - 1; i++) {
+            int separatorIdx = decoded.indexOf(SHARED_PART_SEPARATOR, partIdx);
+
+            if (separatorIdx < 0)
+                throw new IllegalArgumentException("Malformed message!");
+
+            parts[i] = decoded.substring(partIdx, separatorIdx);
+            partIdx = separatorIdx + 1;
+        }
+
+        if (decoded.indexOf(SHARED_PART_SEPARATOR, partIdx) >= 0)
             throw new IllegalArgumentException("Malformed message!");
 
-        int idByteIdx = (encoded[0] == 0) ? 1 : 0;
+        parts[count - 1] = decoded.substring(partIdx);
 
-        if (encoded.length < idByteIdx + 1)
-            throw new IllegalArgumentException("Message is too small!");
+        return parts;
+    }
 
-        StringCompressor compressor = compressors.get(encoded[idByteIdx]);
+    private static boolean isSharedPart(String msg, long segment) {
+        char header = msg.charAt(segmentStart(segment) + COMPRESSED_MSG_START.length());
 
-        if (compressor == null)
-            throw new IllegalArgumentException("Unknown compressor!");
+        return header == SHARED_PART || header == SHARED_LAST_PART;
+    }
+
+    private static List<Long> findSegments(String msg, long segment) {
+        List<Long> segments = new ArrayList<>();
+
+        while (segment != NO_SEGMENT) {
+            segments.add(segment);
+
+            segment = findSegment(msg, segmentEnd(segment) + COMPRESSED_MSG_END.length());
+        }
+
+        return segments;
+    }
+
+    private static int contentsLength(List<Long> segments) {
+        int contentsLength = 0;
+
+        for (long segment : segments)
+            contentsLength += segmentEnd(segment) - segmentStart(segment) - COMPRESSED_MSG_START.length();
+
+        return contentsLength;
+    }
+
+    // Splits the chars left for the parts still to encode in proportion to their contents, so slack left by one part goes to the rest.
+    private static int partBudget(int remainingLength, int partLength, int remainingContentsLength) {
+        return (int) ((long) remainingLength * partLength / Math.max(remainingContentsLength, 1));
+    }
+
+    // Finds the first compressed part at or after fromIdx with the same semantics the "\$!(.+?)!\$" regex had:
+    // the shortest non-empty contents without line terminators. Returns the marker positions packed into a long.
+    private static long findSegment(String msg, int fromIdx) {
+        int startIdx = msg.indexOf(COMPRESSED_MSG_START, fromIdx);
+
+        while (startIdx >= 0) {
+            int contentIdx = startIdx + COMPRESSED_MSG_START.length();
+            int endIdx = msg.indexOf(COMPRESSED_MSG_END, contentIdx + 1);
+
+            if (endIdx < 0)
+                return NO_SEGMENT;
+
+            int terminatorIdx = indexOfLineTerminator(msg, contentIdx, endIdx);
+
+            if (terminatorIdx < 0)
+                return ((long) startIdx << Integer.SIZE) | endIdx;
+
+            // Every part opened before the terminator would have to contain it.
+            startIdx = msg.indexOf(COMPRESSED_MSG_START, terminatorIdx + 1);
+        }
+
+        return NO_SEGMENT;
+    }
+
+    private static int segmentStart(long segment) {
+        return (int) (segment >>> Integer.SIZE);
+    }
+
+    private static int segmentEnd(long segment) {
+        return (int) segment;
+    }
+
+    private static int indexOfLineTerminator(String msg, int fromIdx, int toIdx) {
+        for (int i = fromIdx; i < toIdx; i++) {
+            switch (msg.charAt(i)) {
+                case '\n', '\r', '\u0085', '\u2028', '\u2029' -> {
+                    return i;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private String encode(String msg, int maxLength) {
+        CodecEvents.Encode event = new CodecEvents.Encode();
+
+        event.begin();
+
+        long startTime = System.nanoTime();
+
+        try {
+            Payload payload = (selectionExecutor == null) ? compressWithLast(msg) : compressWithBest(msg);
+
+            String encoded = encodeBytes(payload.data(), payload.length(), maxLength);
+
+            metrics.getEncodes().record(msg.length(), encoded.length(), System.nanoTime() - startTime);
+
+            AlphabetProfile profile = AlphabetProfile.ofHeader(encoded.charAt(0));
+
+            event.compressorId = payload.data()[0];
+            event.encodedLength = encoded.length();
+            event.alphabetProfile = ((profile != null) ? profile : AlphabetProfile.MAX_DENSITY).name();
+
+            return encoded;
+        } catch (RuntimeException e) {
+            metrics.getEncodes().recordFailure(System.nanoTime() - startTime);
+
+            event.failure = e.getMessage();
+
+            throw e;
+        } finally {
+            event.messageLength = msg.length();
+            event.commit();
+        }
+    }
+
+    // Picks the profile sending the fewest bytes within maxLength chars, or the densest one if none fits.
+    private String encodeBytes(byte[] data, int length, int maxLength) {
+        String encoded = null;
+
+        for (AlphabetProfile profile : AlphabetProfile.BY_BYTE_COST) {
+            encoded = encodeBytes(data, length, profile);
+
+            if (encoded.length() <= maxLength)
+                break;
+        }
+
+        return encoded;
+    }
+
+    // The first byte must not be zero, as leading zeros are lost in the v1 format.
+    private static String encodeBytes(byte[] data, int length, AlphabetProfile profile) {
+        String encoded = (length < BLOCK_FORMAT_THRESHOLD) ? profile.alphabet().encode(new BigInteger(1, data, 0, length)) : null;
+
+        // The densest alphabet is kept as it was for older clients, so its digits include line terminators and "!$",
+        // either of which would cut the part short. The block format only uses wire-safe digits.
+        if (encoded == null || indexOfLineTerminator(encoded, 0, encoded.length()) >= 0 || encoded.contains(COMPRESSED_MSG_END))
+            encoded = profile.blockCodec().encode(data, 0, length);
+
+        return profile.hasHeader() ? profile.header() + encoded : encoded;
+    }
+
+    private ByteBuffer decodeBytes(String msg) {
+        AlphabetProfile profile = msg.isEmpty() ? null : AlphabetProfile.ofHeader(msg.charAt(0));
+
+        if (profile != null) {
+            msg = msg.substring(1);
+        } else {
+            profile = AlphabetProfile.MAX_DENSITY;
+        }
+
+        // Anything longer can't decompress within the size limit, so it's rejected before any conversion work.
+        if (msg.length() > maxEncodedLengths[profile.ordinal()])
+            throw new IllegalArgumentException("Message is too long!");
+
+        if (BlockCodec.isBlockFormat(msg))
+            return ByteBuffer.wrap(profile.blockCodec().decode(msg));
+
+        byte[] encoded = profile.alphabet().decode(msg).toByteArray();
+
+        // Skips the sign byte BigInteger adds when the highest bit is set.
+        int offset = (encoded[0] == 0) ? 1 : 0;
+
+        return ByteBuffer.wrap(encoded, offset, encoded.length - offset);
+    }
+
+    // Compresses with the single compressor the policy picks, falling back to the stored one if that's no longer.
+    private Payload compressWithLast(String msg) {
+        List<Byte> available = new ArrayList<>(compressors.size());
+
+        for (Map.Entry<Byte, LazyCompressor> compressorEntry : compressors.descendingMap().entrySet()) {
+            if (compressorEntry.getKey() != STORED_COMPRESSOR_ID
+                    && !decodeOnlyCompressorIds.contains(compressorEntry.getKey())
+                    && compressorEntry.getValue().get() != null)
+                available.add(compressorEntry.getKey());
+        }
+
+        LazyCompressor stored = compressors.get(STORED_COMPRESSOR_ID);
+
+        if (available.isEmpty()) {
+            if (stored == null)
+                throw new IllegalStateException("Unable to compress message!");
+
+            return compress(STORED_COMPRESSOR_ID, stored.getAvailable(), msg);
+        }
+
+        byte compressorId = policy.chooseCompressor(available, msg.length());
+
+        Payload payload = compress(compressorId, compressors.get(compressorId).getAvailable(), msg);
+
+        // Both payloads start with their compressor ID, so this compares the compressed data alone.
+        if (stored != null && payload.length() - 1 >= StandardCharsets.UTF_8.encode(msg).remaining())
+            return compress(STORED_COMPRESSOR_ID, stored.getAvailable(), msg);
+
+        return payload;
+    }
+
+    private Payload compressWithBest(String msg) {
+        CompletionService<Payload> completionService = new ExecutorCompletionService<>(selectionExecutor);
+        List<Future<Payload>> futures = new ArrayList<>(compressors.size());
+
+        for (Map.Entry<Byte, LazyCompressor> compressorEntry : compressors.entrySet()) {
+            if (decodeOnlyCompressorIds.contains(compressorEntry.getKey()))
+                continue;
+
+            futures.add(completionService.submit(
+                    () -> compress(compressorEntry.getKey(), compressorEntry.getValue().getAvailable(), msg)
+            ));
+        }
+
+        long deadline = System.nanoTime() + selectionDeadlineNanos;
+
+        Payload best = null;
+        Throwable failure = null;
+
+        try {
+            for (int pending = futures.size(); pending > 0; pending--) {
+                Future<Payload> future = completionService.poll(
+                        Math.max(deadline - System.nanoTime(), 0),
+                        TimeUnit.NANOSECONDS
+                );
+
+                if (future == null) {
+                    if (best != null)
+                        break;
+
+                    future = completionService.take();
+                }
 
-        return compressor.decompress(encoded, idByteIdx + 1);
+                try {
+                    Payload payload = future.get();
+
+                    if (best == null || payload.isShorterThan(best))
+                        best = payload;
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted while compressing!", e);
+        } finally {
+            for (Future<Payload> future : futures)
+                future.cancel(false);
+        }
+
+        if (best == null)
+            throw new IllegalStateException("Unable to compress message!", failure);
+
+        return best;
+    }
+
+    // Compresses straight into the payload array, right after the compressor ID byte.
+    private Payload compress(byte compressorId, StringCompressor compressor, String msg) {
+        CodecEvents.Compressor event = new CodecEvents.Compressor();
+
+        event.begin();
+
+        long startTime = System.nanoTime();
+
+        OperationMetrics compressorMetrics = metrics.compressionsOf(compressorId);
+
+        try {
+            byte[] data = new byte[compressor.maxCompressedLength(msg.length()) + 1];
+
+            data[0] = compressorId;
+
+            ByteBuffer output = ByteBuffer.wrap(data, 1, data.length - 1);
+
+            int[] levels = compressor.levels();
+            int compressedLength;
+
+            if (levels.length > 0) {
+                int level = policy.chooseLevel(compressorId, levels, msg.length());
+
+                compressedLength = compressor.compress(msg, output, level);
+
+                policy.record(compressorId, level, msg.length(), compressedLength, System.nanoTime() - startTime);
+
+                event.level = level;
+            } else {
+                compressedLength = compressor.compress(msg, output);
+
+                policy.record(compressorId, msg.length(), compressedLength, System.nanoTime() - startTime);
+            }
+
+            compressorMetrics.record(msg.length(), compressedLength, System.nanoTime() - startTime);
+
+            event.outputSize = compressedLength;
+
+            return new Payload(data, compressedLength + 1);
+        } catch (RuntimeException e) {
+            compressorMetrics.recordFailure(System.nanoTime() - startTime);
+
+            event.failure = e.getMessage();
+
+            throw e;
+        } finally {
+            event.operation = "compress";
+            event.compressorId = compressorId;
+            event.inputSize = msg.length();
+            event.commit();
+        }
+    }
+
+    private String decode(String msg) {
+        CodecEvents.Decode event = new CodecEvents.Decode();
+
+        event.begin();
+
+        long startTime = System.nanoTime();
+
+        try {
+            ByteBuffer encoded = decodeBytes(msg);
+
+            if (!encoded.hasRemaining())
+                throw new IllegalArgumentException("Message is too small!");
+
+            byte compressorId = encoded.get();
+
+            LazyCompressor compressor = compressors.get(compressorId);
+
+            if (compressor == null)
+                throw new IllegalArgumentException("Unknown compressor!");
+
+            event.compressorId = compressorId;
+
+            String decoded = decompress(compressorId, compressor.getAvailable(), encoded);
+
+            metrics.getDecodes().record(msg.length(), decoded.length(), System.nanoTime() - startTime);
+
+            event.decodedLength = decoded.length();
+
+            return decoded;
+        } catch (RuntimeException e) {
+            metrics.getDecodes().recordFailure(System.nanoTime() - startTime);
+
+            event.failure = e.getMessage();
+
+            throw e;
+        } finally {
+            event.encodedLength = msg.length();
+            event.commit();
+        }
+    }
+
+    private String decompress(byte compressorId, StringCompressor compressor, ByteBuffer input) {
+        CodecEvents.Compressor event = new CodecEvents.Compressor();
+
+        event.begin();
+
+        long startTime = System.nanoTime();
+
+        OperationMetrics compressorMetrics = metrics.decompressionsOf(compressorId);
+
+        int inputSize = input.remaining();
+
+        try {
+            String decompressed = compressor.decompress(input);
+
+            compressorMetrics.record(inputSize, decompressed.length(), System.nanoTime() - startTime);
+
+            event.outputSize = decompressed.length();
+
+            return decompressed;
+        } catch (RuntimeException e) {
+            compressorMetrics.recordFailure(System.nanoTime() - startTime);
+
+            event.failure = e.getMessage();
+
+            throw e;
+        } finally {
+            event.operation = "decompress";
+            event.compressorId = compressorId;
+            event.inputSize = inputSize;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void close() {
+        decodeCache.clear();
+        conversationStreams.close();
+
+        for (LazyCompressor compressor : compressors.values())
+            compressor.close();
     }
 
-    public interface StringCompressor {
+    // The conversation is the one the message would be passed to decodeMessage() with.
+    public record ReceivedMessage(String msg, String conversation) {}
+
+    public record DecodedMessage(String msg, long nanos) {}
+
+    private record Payload(byte[] data, int length) {
+
+        // The compressor ID byte is never zero, so a shorter payload (or the same length with a smaller ID)
+        // always maps to a smaller integer, and therefore to no more alphabet characters.
+        boolean isShorterThan(Payload other) {
+            if (length != other.length)
+                return length < other.length;
+
+            return Byte.compareUnsigned(data[0], other.data[0]) < 0;
+        }
+
+    }
+
+    public interface StringCompressor extends AutoCloseable {
 
         int DECOMPRESSION_SIZE_LIMIT = 1 << 14;
 
-        byte[] compress(String str);
+        int MAX_UTF8_BYTES_PER_CHAR = 3;
+
+        // Upper bound of the compressed size of any string with the given number of chars.
+        int maxCompressedLength(int strLength);
+
+        // Writes the compressed string at the buffer's position, advancing it, and returns the number of bytes written.
+        int compress(String str, ByteBuffer output);
 
-        String decompress(byte[] data, int offset, int length);
+        // Decompresses the remaining bytes of the buffer.
+        String decompress(ByteBuffer input);
+
+        // Supported compression levels, from the fastest to the strongest; empty if the compressor has none.
+        default int[] levels() {
+            return new int[0];
+        }
+
+        // Compresses with one of levels(), while compress(String, ByteBuffer) uses the strongest one.
+        default int compress(String str, ByteBuffer output, int level) {
+            return compress(str, output);
+        }
+
+        default byte[] compress(String str) {
+            byte[] compressed = new byte[maxCompressedLength(str.length())];
+
+            return Arrays.copyOf(compressed, compress(str, ByteBuffer.wrap(compressed)));
+        }
+
+        default String decompress(byte[] data, int offset, int length) {
+            return decompress(ByteBuffer.wrap(data, offset, length));
+        }
 
         default String decompress(byte[] data, int offset) {
             return decompress(data, offset, data.length - offset);
         }
 
+        @Override
+        default void close() {}
+
     }
 
 }
@@ -0,0 +1,79 @@
+package me.lemontea.compresschat.codec;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Throughput, size ratio and latency of one kind of codec operation.
+ * Recording only touches LongAdders, so it is cheap enough to stay enabled all the time.
+ */
+public final class OperationMetrics {
+
+    private static final long PERMILLE = 1000;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder inputSize = new LongAdder();
+    private final LongAdder outputSize = new LongAdder();
+
+    private final LogHistogram ratioPermille = new LogHistogram();
+    private final LogHistogram latencyNanos = new LogHistogram();
+
+    void record(int input, int output, long nanos) {
+        completed.increment();
+
+        inputSize.add(input);
+        outputSize.add(output);
+
+        if (input > 0)
+            ratioPermille.record(output * PERMILLE / input);
+
+        latencyNanos.record(nanos);
+    }
+
+    void recordFailure(long nanos) {
+        failed.increment();
+
+        latencyNanos.record(nanos);
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getInputSize() {
+        return inputSize.sum();
+    }
+
+    public long getOutputSize() {
+        return outputSize.sum();
+    }
+
+    public LogHistogram getRatioPermille() {
+        return ratioPermille;
+    }
+
+    public LogHistogram getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public String describe() {
+        long input = getInputSize();
+
+        return String.format(
+                "%d ok, %d failed, output/input %.1f%% (p50 <= %.1f%%, p90 <= %.1f%%), latency p50 <= %.1f us, p99 <= %.1f us",
+                getCompleted(),
+                getFailed(),
+                (input > 0) ? 100.0 * getOutputSize() / input : 0.0,
+                ratioPermille.getPercentile(50) / 10.0,
+                ratioPermille.getPercentile(90) / 10.0,
+                latencyNanos.getPercentile(50) / 1000.0,
+                latencyNanos.getPercentile(99) / 1000.0
+        );
+    }
+
+}
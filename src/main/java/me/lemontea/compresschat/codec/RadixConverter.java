@@ -0,0 +1,146 @@
+package me.lemontea.compresschat.codec;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/*
+ * Converts non-negative integers to little-endian base-N digit arrays and back.
+ *
+ * Both directions split the number at base^(2^k) boundaries, so the work is dominated
+ * by a few large multiplications/divisions instead of one BigInteger operation per digit.
+ */
+final class RadixConverter {
+
+    private static final int LEAF_DIGITS = 32;
+
+    private final int base;
+
+    private final int digitsPerLong;
+    private final BigInteger[] chunkPowers;
+
+    private volatile BigInteger[] powers;
+
+    RadixConverter(int base) {
+        if (base < 2)
+            throw new IllegalArgumentException("Base is too small!");
+
+        this.base = base;
+
+        int digits = 0;
+
+        for (long power = 1; power <= Long.MAX_VALUE / base; power *= base)
+            digits++;
+
+        digitsPerLong = digits;
+        chunkPowers = new BigInteger[digits + 1];
+
+        for (int i = 0; i <= digits; i++)
+            chunkPowers[i] = BigInteger.valueOf(base).pow(i);
+
+        powers = new BigInteger[] { BigInteger.valueOf(base) };
+    }
+
+    int getBase() {
+        return base;
+    }
+
+    int[] toDigits(BigInteger value) {
+        if (value.signum() < 0)
+            throw new IllegalArgumentException("Value should not be negative!");
+
+        if (value.signum() == 0)
+            return new int[0];
+
+        int level = 0;
+
+        while (value.compareTo(power(level)) >= 0)
+            level++;
+
+        int[] digits = new int[1 << level];
+
+        fillDigits(value, level, digits, 0);
+
+        int length = digits.length;
+
+        while (digits[length - 1] == 0)
+            length--;
+
+        return Arrays.copyOf(digits, length);
+    }
+
+    BigInteger fromDigits(int[] digits, int from, int to) {
+        int length = to - from;
+
+        if (length <= LEAF_DIGITS)
+            return leafFromDigits(digits, from, to);
+
+        int level = 31 - Integer.numberOfLeadingZeros(length - 1);
+        int mid = from + (1 << level);
+
+        return fromDigits(digits, mid, to).multiply(power(level)).add(fromDigits(digits, from, mid));
+    }
+
+    // Invariant: value < base^(2^level), so it occupies at most 2^level digits starting at offset.
+    private void fillDigits(BigInteger value, int level, int[] digits, int offset) {
+        if (value.bitLength() < Long.SIZE) {
+            long remaining = value.longValue();
+
+            for (int i = offset; remaining != 0; i++) {
+                digits[i] = (int) (remaining % base);
+                remaining /= base;
+            }
+
+            return;
+        }
+
+        BigInteger[] divisionResult = value.divideAndRemainder(power(level - 1));
+
+        fillDigits(divisionResult[1], level - 1, digits, offset);
+        fillDigits(divisionResult[0], level - 1, digits, offset + (1 << (level - 1)));
+    }
+
+    private BigInteger leafFromDigits(int[] digits, int from, int to) {
+        BigInteger result = BigInteger.ZERO;
+
+        for (int i = to; i > from; ) {
+            int chunkSize = Math.min(digitsPerLong, i - from);
+
+            long chunk = 0;
+
+            for (int j = i - 1; j >= i - chunkSize; j--)
+                chunk = chunk * base + digits[j];
+
+            result = result.multiply(chunkPowers[chunkSize]).add(BigInteger.valueOf(chunk));
+
+            i -= chunkSize;
+        }
+
+        return result;
+    }
+
+    // Returns base^(2^level), squaring and caching the missing powers on demand.
+    private BigInteger power(int level) {
+        BigInteger[] cached = powers;
+
+        if (level < cached.length)
+            return cached[level];
+
+        synchronized (this) {
+            cached = powers;
+
+            if (level >= cached.length) {
+                int oldLength = cached.length;
+
+                cached = Arrays.copyOf(cached, level + 1);
+
+                for (int i = oldLength; i <= level; i++)
+                    cached[i] = cached[i - 1].multiply(cached[i - 1]);
+
+                powers = cached;
+            }
+
+            return cached[level];
+        }
+    }
+
+}
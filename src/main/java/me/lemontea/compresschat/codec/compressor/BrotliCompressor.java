@@ -4,6 +4,7 @@ import me.lemontea.compresschat.codec.MessageCodec;
 
 import java.lang.foreign.*;
 import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
@@ -16,165 +17,234 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
 
     private static final int BROTLI_MAX_QUALITY = 11;
 
-    private static final MethodHandle BROTLI_ENCODER_CREATE_INSTANCE;
-    private static final MethodHandle BROTLI_ENCODER_SET_PARAMETER;
-    private static final MethodHandle BROTLI_ENCODER_COMPRESS_STREAM;
-    private static final MethodHandle BROTLI_ENCODER_IS_FINISHED;
-    private static final MethodHandle BROTLI_ENCODER_HAS_MORE_OUTPUT;
-    private static final MethodHandle BROTLI_ENCODER_TAKE_OUTPUT;
-    private static final MethodHandle BROTLI_ENCODER_DESTROY_INSTANCE;
-
-    private static final MethodHandle BROTLI_DECODER_CREATE_INSTANCE;
-    private static final MethodHandle BROTLI_DECODER_DECOMPRESS_STREAM;
-    private static final MethodHandle BROTLI_DECODER_HAS_MORE_OUTPUT;
-    private static final MethodHandle BROTLI_DECODER_TAKE_OUTPUT;
-    private static final MethodHandle BROTLI_DECODER_DESTROY_INSTANCE;
-
-    static {
-        Linker linker = Linker.nativeLinker();
-
-        SymbolLookup decoderLookup = SymbolLookup.libraryLookup(
-                System.mapLibraryName("brotlidec"),
-                MemorySession.global()
-        );
+    private static final int[] QUALITY_LEVELS = { 5, 9, BROTLI_MAX_QUALITY };
+    private static final int BROTLI_DEFAULT_WINDOW = 22;
 
-        SymbolLookup encoderLookup = SymbolLookup.libraryLookup(
-                System.mapLibraryName("brotlienc"),
-                MemorySession.global()
-        );
+    private static final int BROTLI_SHARED_DICTIONARY_RAW = 0;
+
+    // Brotli has no public API to reset an encoder/decoder state, so the streaming path (only taken with a dictionary,
+    // or for input too large to bound) still creates one per message; the one-shot calls keep theirs inside the library.
+    // The native scratch memory around them is pooled and reused either way.
+    private final NativePool<ContextBuffers> bufferPool = new NativePool<>(ContextBuffers::new);
+
+    private final MemorySession dictionarySession;
+    private final MemorySegment dictionary;
+    private final Addressable preparedDictionary;
+
+    private volatile boolean closed;
+
+    public BrotliCompressor() {
+        if (!isAvailable())
+            throw new IllegalStateException("Brotli library is unavailable!");
+
+        dictionarySession = null;
+        dictionary = null;
+        preparedDictionary = null;
+    }
+
+    public BrotliCompressor(byte[] dictionary) {
+        if (!isDictionarySupported())
+            throw new IllegalStateException("Installed brotli library does not support custom dictionaries!");
+
+        // Both the decoders and the prepared dictionary reference this memory, so it lives until the compressor is closed.
+        dictionarySession = MemorySession.openShared();
+
+        this.dictionary = MemorySegment.allocateNative(dictionary.length, dictionarySession);
+        MemorySegment.copy(dictionary, 0, this.dictionary, ValueLayout.JAVA_BYTE, 0, dictionary.length);
+
+        try {
+            preparedDictionary = (MemoryAddress) Natives.BROTLI_ENCODER_PREPARE_DICTIONARY.invokeExact(
+                    BROTLI_SHARED_DICTIONARY_RAW,
+                    this.dictionary.byteSize(),
+                    (Addressable) this.dictionary,
+                    BROTLI_MAX_QUALITY,
+                    (Addressable) MemoryAddress.NULL,
+                    (Addressable) MemoryAddress.NULL,
+                    (Addressable) MemoryAddress.NULL
+            );
+        } catch (Throwable e) {
+            dictionarySession.close();
+
+            throw new IllegalStateException("Unable to prepare brotli dictionary!", e);
+        }
+
+        if (preparedDictionary.equals(MemoryAddress.NULL)) {
+            dictionarySession.close();
+
+            throw new IllegalStateException("Unable to prepare brotli dictionary!");
+        }
+    }
+
+    // A missing or incompatible library only fails the initialization of the holder class, which is reported here.
+    public static boolean isAvailable() {
+        try {
+            Natives.load();
+
+            return true;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    public static boolean isDictionarySupported() {
+        return isAvailable()
+                && Natives.BROTLI_ENCODER_PREPARE_DICTIONARY != null
+                && Natives.BROTLI_ENCODER_ATTACH_PREPARED_DICTIONARY != null
+                && Natives.BROTLI_DECODER_ATTACH_DICTIONARY != null;
+    }
+
+    @Override
+    public int maxCompressedLength(int strLength) {
+        long maxCompressedSize = maxCompressedSize((long) strLength * MAX_UTF8_BYTES_PER_CHAR);
+
+        if (maxCompressedSize == 0 || maxCompressedSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Message is too long!");
+
+        return (int) maxCompressedSize;
+    }
 
-        // Encoder
-
-        BROTLI_ENCODER_CREATE_INSTANCE =
-                encoderLookup.lookup("BrotliEncoderCreateInstance").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.of(
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS
-                        )
-                )).orElseThrow();
-
-        BROTLI_ENCODER_SET_PARAMETER =
-                encoderLookup.lookup("BrotliEncoderSetParameter").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.of(
-                                ValueLayout.JAVA_INT,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.JAVA_INT,
-                                ValueLayout.JAVA_INT
-                        )
-                )).orElseThrow();
-
-        BROTLI_ENCODER_COMPRESS_STREAM =
-                encoderLookup.lookup("BrotliEncoderCompressStream").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.of(
-                                ValueLayout.JAVA_INT,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.JAVA_INT,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS
-                        )
-                )).orElseThrow();
-
-        BROTLI_ENCODER_TAKE_OUTPUT =
-                encoderLookup.lookup("BrotliEncoderTakeOutput").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.of(
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS
-                        )
-                )).orElseThrow();
-
-        BROTLI_ENCODER_IS_FINISHED =
-                encoderLookup.lookup("BrotliEncoderIsFinished").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.of(
-                                ValueLayout.JAVA_INT,
-                                ValueLayout.ADDRESS
-                        )
-                )).orElseThrow();
-
-        BROTLI_ENCODER_HAS_MORE_OUTPUT =
-                encoderLookup.lookup("BrotliEncoderHasMoreOutput").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.of(
-                                ValueLayout.JAVA_INT,
-                                ValueLayout.ADDRESS
-                        )
-                )).orElseThrow();
-
-        BROTLI_ENCODER_DESTROY_INSTANCE =
-                encoderLookup.lookup("BrotliEncoderDestroyInstance").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.ofVoid(ValueLayout.ADDRESS)
-                )).orElseThrow();
-
-        // Decoder
-
-        BROTLI_DECODER_CREATE_INSTANCE =
-                decoderLookup.lookup("BrotliDecoderCreateInstance").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.of(
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS
-                        )
-                )).orElseThrow();
-
-        BROTLI_DECODER_DECOMPRESS_STREAM =
-                decoderLookup.lookup("BrotliDecoderDecompressStream").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.of(
-                                ValueLayout.JAVA_INT,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS
-                        )
-                )).orElseThrow();
-
-        BROTLI_DECODER_HAS_MORE_OUTPUT =
-                decoderLookup.lookup("BrotliDecoderHasMoreOutput").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.of(
-                                ValueLayout.JAVA_INT,
-                                ValueLayout.ADDRESS
-                        )
-                )).orElseThrow();
-
-        BROTLI_DECODER_TAKE_OUTPUT =
-                decoderLookup.lookup("BrotliDecoderTakeOutput").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.of(
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS,
-                                ValueLayout.ADDRESS
-                        )
-                )).orElseThrow();
-
-        BROTLI_DECODER_DESTROY_INSTANCE =
-                decoderLookup.lookup("BrotliDecoderDestroyInstance").map(memorySegment -> linker.downcallHandle(
-                        memorySegment,
-                        FunctionDescriptor.ofVoid(ValueLayout.ADDRESS)
-                )).orElseThrow();
+    @Override
+    public int[] levels() {
+        return QUALITY_LEVELS.clone();
+    }
+
+    @Override
+    public int compress(String str, ByteBuffer output) {
+        return compress(str, output, BROTLI_MAX_QUALITY);
+    }
+
+    @Override
+    public int compress(String str, ByteBuffer output, int quality) {
+        if (closed)
+            throw new IllegalStateException("Compressor is closed!");
+
+        byte[] data = str.getBytes(StandardCharsets.UTF_8);
+
+        // The one-shot API has no way to attach a dictionary.
+        if (preparedDictionary == null) {
+            int compressedLength = compressOneShot(data, output, quality);
+
+            if (compressedLength >= 0)
+                return compressedLength;
+        }
+
+        return compressStream(data, output, quality);
     }
 
     @Override
-    public byte[] compress(String str) {
+    public String decompress(ByteBuffer input) {
+        if (closed)
+            throw new IllegalStateException("Compressor is closed!");
+
+        return (dictionary == null) ? decompressOneShot(input) : decompressStream(input);
+    }
+
+    private static long maxCompressedSize(long inputSize) {
+        try {
+            return (long) Natives.BROTLI_ENCODER_MAX_COMPRESSED_SIZE.invokeExact(inputSize);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to compute compressed size bound!", e);
+        }
+    }
+
+    // Returns -1 if the input is too large for BrotliEncoderMaxCompressedSize to give a bound.
+    private int compressOneShot(byte[] data, ByteBuffer output, int quality) {
+        long maxCompressedSize = maxCompressedSize(data.length);
+
+        if (maxCompressedSize == 0)
+            return -1;
+
+        ContextBuffers buffers = bufferPool.acquire();
+
+        try {
+            buffers.reserve(data.length, maxCompressedSize);
+
+            MemorySegment dataBuf = buffers.getInput(data.length);
+            MemorySegment.copy(data, 0, dataBuf, ValueLayout.JAVA_BYTE, 0, data.length);
+
+            MemorySegment resultBuf = buffers.getOutput(maxCompressedSize);
+
+            NativeContext ctx = buffers.getContext();
+
+            ctx.setSizeOut(maxCompressedSize);
+
+            Addressable sizeOutPtr = ctx.getSizeOutPtr();
+
+            int exitCode = (int) Natives.BROTLI_ENCODER_COMPRESS.invokeExact(
+                    quality,
+                    BROTLI_DEFAULT_WINDOW,
+                    BrotliEncoderMode.TEXT.ordinal(),
+                    dataBuf.byteSize(),
+                    (Addressable) dataBuf,
+                    sizeOutPtr,
+                    (Addressable) resultBuf
+            );
+
+            if (exitCode == BROTLI_FALSE)
+                throw new IllegalStateException("Compression error!");
+
+            int compressedLength = (int) ctx.getSizeOut();
+
+            output.put(resultBuf.asSlice(0, compressedLength).asByteBuffer());
+
+            return compressedLength;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to perform compression!", e);
+        } finally {
+            bufferPool.release(buffers);
+        }
+    }
+
+    private String decompressOneShot(ByteBuffer input) {
+        ContextBuffers buffers = bufferPool.acquire();
+
+        try {
+            // One byte over the limit, so a full buffer means the message is too long.
+            buffers.reserve(input.remaining(), DECOMPRESSION_SIZE_LIMIT + 1);
+
+            MemorySegment dataBuf = buffers.getInput(input.remaining());
+            dataBuf.asByteBuffer().put(input);
+
+            MemorySegment resultBuf = buffers.getOutput(DECOMPRESSION_SIZE_LIMIT + 1);
+
+            NativeContext ctx = buffers.getContext();
+
+            ctx.setSizeOut(resultBuf.byteSize());
+
+            Addressable sizeOutPtr = ctx.getSizeOutPtr();
+
+            int exitCode = (int) Natives.BROTLI_DECODER_DECOMPRESS.invokeExact(
+                    dataBuf.byteSize(),
+                    (Addressable) dataBuf,
+                    sizeOutPtr,
+                    (Addressable) resultBuf
+            );
+
+            // BrotliDecoderDecompress turns every other result into ERROR, a full output buffer included,
+            // which is told apart by the decoded size; decoding it again can't make it any shorter.
+            if (ctx.getSizeOut() > DECOMPRESSION_SIZE_LIMIT)
+                throw new IllegalArgumentException("Message is too long!");
+
+            if (exitCode != BrotliDecoderResult.SUCCESS.ordinal())
+                throw new IllegalArgumentException("Malformed data!");
+
+            byte[] result = resultBuf.asSlice(0, ctx.getSizeOut()).toArray(ValueLayout.JAVA_BYTE);
+
+            return new String(result, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to perform decompression!", e);
+        } finally {
+            bufferPool.release(buffers);
+        }
+    }
+
+    private int compressStream(byte[] data, ByteBuffer output, int quality) {
         Addressable brotliState;
 
         try {
-            brotliState = (MemoryAddress) BROTLI_ENCODER_CREATE_INSTANCE.invokeExact(
+            brotliState = (MemoryAddress) Natives.BROTLI_ENCODER_CREATE_INSTANCE.invokeExact(
                     (Addressable) MemoryAddress.NULL,
                     (Addressable) MemoryAddress.NULL,
                     (Addressable) MemoryAddress.NULL
@@ -188,13 +258,15 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
 
         int exitCode;
 
-        try (MemorySession memorySession = MemorySession.openConfined()) {
-            byte[] data = str.getBytes(StandardCharsets.UTF_8);
+        ContextBuffers buffers = bufferPool.acquire();
+
+        try {
+            buffers.reserve(data.length, 0);
 
-            MemorySegment dataBuf = MemorySegment.allocateNative(data.length, memorySession);
+            MemorySegment dataBuf = buffers.getInput(data.length);
             MemorySegment.copy(data, 0, dataBuf, ValueLayout.JAVA_BYTE, 0, data.length);
 
-            NativeContext ctx = new NativeContext(memorySession);
+            NativeContext ctx = buffers.getContext();
 
             ctx.setAvailableOut(0);
             ctx.setAvailableIn(dataBuf.byteSize());
@@ -205,22 +277,27 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
             Addressable availInPtr = ctx.getAvailableInPtr();
             Addressable nextInPtr = ctx.getNextInPtr();
 
-            exitCode = (int) BROTLI_ENCODER_SET_PARAMETER.invokeExact(brotliState, BrotliEncoderParam.MODE.ordinal(), BrotliEncoderMode.TEXT.ordinal());
+            exitCode = (int) Natives.BROTLI_ENCODER_SET_PARAMETER.invokeExact(brotliState, BrotliEncoderParam.MODE.ordinal(), BrotliEncoderMode.TEXT.ordinal());
 
             if (exitCode == BROTLI_FALSE)
                 throw new IllegalStateException("Unable to set compression mode!");
 
-            exitCode = (int) BROTLI_ENCODER_SET_PARAMETER.invokeExact(brotliState, BrotliEncoderParam.QUALITY.ordinal(), BROTLI_MAX_QUALITY);
+            exitCode = (int) Natives.BROTLI_ENCODER_SET_PARAMETER.invokeExact(brotliState, BrotliEncoderParam.QUALITY.ordinal(), quality);
 
             if (exitCode == BROTLI_FALSE)
                 throw new IllegalStateException("Unable to set compression level!");
 
-            int bytesRead = 0;
+            if (preparedDictionary != null) {
+                exitCode = (int) Natives.BROTLI_ENCODER_ATTACH_PREPARED_DICTIONARY.invokeExact(brotliState, preparedDictionary);
 
-            byte[] result = new byte[INITIAL_BUF_SIZE];
+                if (exitCode == BROTLI_FALSE)
+                    throw new IllegalStateException("Unable to attach compression dictionary!");
+            }
 
-            while ((int) BROTLI_ENCODER_IS_FINISHED.invokeExact(brotliState) == BROTLI_FALSE) {
-                exitCode = (int) BROTLI_ENCODER_COMPRESS_STREAM.invokeExact(
+            int startPosition = output.position();
+
+            while ((int) Natives.BROTLI_ENCODER_IS_FINISHED.invokeExact(brotliState) == BROTLI_FALSE) {
+                exitCode = (int) Natives.BROTLI_ENCODER_COMPRESS_STREAM.invokeExact(
                         brotliState,
                         BrotliEncoderOperation.FINISH.ordinal(),
                         availInPtr,
@@ -233,13 +310,13 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
                 if (exitCode == BROTLI_FALSE)
                     throw new IllegalStateException("Compression error!");
 
-                while ((int) BROTLI_ENCODER_HAS_MORE_OUTPUT.invokeExact(brotliState) == BROTLI_TRUE) {
-                    if (bytesRead == result.length)
-                        result = Arrays.copyOf(result, result.length + INITIAL_BUF_SIZE);
+                while ((int) Natives.BROTLI_ENCODER_HAS_MORE_OUTPUT.invokeExact(brotliState) == BROTLI_TRUE) {
+                    if (!output.hasRemaining())
+                        throw new IllegalStateException("Output buffer is too small!");
 
-                    ctx.setSizeOut(result.length - bytesRead);
+                    ctx.setSizeOut(output.remaining());
 
-                    MemoryAddress compressedPtr = (MemoryAddress) BROTLI_ENCODER_TAKE_OUTPUT.invokeExact(brotliState, sizeOutPtr);
+                    MemoryAddress compressedPtr = (MemoryAddress) Natives.BROTLI_ENCODER_TAKE_OUTPUT.invokeExact(brotliState, sizeOutPtr);
 
                     MemorySegment compressedData = MemorySegment.ofAddress(
                             compressedPtr,
@@ -247,30 +324,29 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
                             MemorySession.global()
                     );
 
-                    MemorySegment.copy(compressedData, ValueLayout.JAVA_BYTE, 0, result, bytesRead, (int) compressedData.byteSize());
-
-                    bytesRead += compressedData.byteSize();
+                    output.put(compressedData.asByteBuffer());
                 }
             }
 
-            return Arrays.copyOf(result, bytesRead);
+            return output.position() - startPosition;
         } catch (Throwable e) {
             throw new IllegalStateException("Unable to perform compression!", e);
         } finally {
             try {
-                BROTLI_ENCODER_DESTROY_INSTANCE.invokeExact(brotliState);
+                Natives.BROTLI_ENCODER_DESTROY_INSTANCE.invokeExact(brotliState);
             } catch (Throwable e) {
                 e.printStackTrace();
             }
+
+            bufferPool.release(buffers);
         }
     }
 
-    @Override
-    public String decompress(byte[] data, int offset, int length) {
+    private String decompressStream(ByteBuffer input) {
         Addressable brotliState;
 
         try {
-            brotliState = (MemoryAddress) BROTLI_DECODER_CREATE_INSTANCE.invokeExact(
+            brotliState = (MemoryAddress) Natives.BROTLI_DECODER_CREATE_INSTANCE.invokeExact(
                     (Addressable) MemoryAddress.NULL,
                     (Addressable) MemoryAddress.NULL,
                     (Addressable) MemoryAddress.NULL
@@ -282,11 +358,15 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
         if (brotliState.equals(MemoryAddress.NULL))
             throw new IllegalStateException("Unable to initialize brotli decoder!");
 
-        try (MemorySession memorySession = MemorySession.openConfined()) {
-            MemorySegment dataBuf = MemorySegment.allocateNative(length, memorySession);
-            MemorySegment.copy(data, offset, dataBuf, ValueLayout.JAVA_BYTE, 0, length);
+        ContextBuffers buffers = bufferPool.acquire();
+
+        try {
+            buffers.reserve(input.remaining(), 0);
+
+            MemorySegment dataBuf = buffers.getInput(input.remaining());
+            dataBuf.asByteBuffer().put(input);
 
-            NativeContext ctx = new NativeContext(memorySession);
+            NativeContext ctx = buffers.getContext();
 
             ctx.setAvailableOut(0);
             ctx.setAvailableIn(dataBuf.byteSize());
@@ -297,6 +377,18 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
             Addressable availInPtr = ctx.getAvailableInPtr();
             Addressable nextInPtr = ctx.getNextInPtr();
 
+            if (dictionary != null) {
+                int exitCode = (int) Natives.BROTLI_DECODER_ATTACH_DICTIONARY.invokeExact(
+                        brotliState,
+                        BROTLI_SHARED_DICTIONARY_RAW,
+                        dictionary.byteSize(),
+                        (Addressable) dictionary
+                );
+
+                if (exitCode == BROTLI_FALSE)
+                    throw new IllegalStateException("Unable to attach decompression dictionary!");
+            }
+
             BrotliDecoderResult decodeResult;
 
             int bytesRead = 0;
@@ -304,7 +396,7 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
             byte[] result = new byte[INITIAL_BUF_SIZE];
 
             do {
-                int exitCode = (int) BROTLI_DECODER_DECOMPRESS_STREAM.invokeExact(
+                int exitCode = (int) Natives.BROTLI_DECODER_DECOMPRESS_STREAM.invokeExact(
                         brotliState,
                         availInPtr,
                         nextInPtr,
@@ -317,13 +409,13 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
 
                 switch (decodeResult) {
                     case NEEDS_MORE_OUTPUT, SUCCESS -> {
-                        while ((int) BROTLI_DECODER_HAS_MORE_OUTPUT.invokeExact(brotliState) == BROTLI_TRUE) {
+                        while ((int) Natives.BROTLI_DECODER_HAS_MORE_OUTPUT.invokeExact(brotliState) == BROTLI_TRUE) {
                             if (bytesRead == result.length)
-                                result = Arrays.copyOf(result, result.length + INITIAL_BUF_SIZE);
+                                result = Arrays.copyOf(result, result.length * 2);
 
                             ctx.setSizeOut(result.length - bytesRead);
 
-                            MemoryAddress decompressedPtr = (MemoryAddress) BROTLI_DECODER_TAKE_OUTPUT.invokeExact(brotliState, sizeOutPtr);
+                            MemoryAddress decompressedPtr = (MemoryAddress) Natives.BROTLI_DECODER_TAKE_OUTPUT.invokeExact(brotliState, sizeOutPtr);
 
                             MemorySegment decompressedData = MemorySegment.ofAddress(
                                     decompressedPtr,
@@ -336,26 +428,50 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
                             bytesRead += decompressedData.byteSize();
 
                             if (bytesRead > DECOMPRESSION_SIZE_LIMIT)
-                                throw new IllegalStateException("Message is too long!");
+                                throw new IllegalArgumentException("Message is too long!");
                         }
                     }
 
-                    default -> throw new IllegalStateException("Malformed data!");
+                    default -> throw new IllegalArgumentException("Malformed data!");
                 }
             } while (decodeResult != BrotliDecoderResult.SUCCESS);
 
-            return new String(Arrays.copyOf(result, bytesRead), StandardCharsets.UTF_8);
+            return new String(result, 0, bytesRead, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Throwable e) {
             throw new IllegalStateException("Unable to perform decompression!", e);
         } finally {
             try {
-                BROTLI_DECODER_DESTROY_INSTANCE.invokeExact(brotliState);
+                Natives.BROTLI_DECODER_DESTROY_INSTANCE.invokeExact(brotliState);
             } catch (Throwable e) {
                 e.printStackTrace();
             }
+
+            bufferPool.release(buffers);
         }
     }
 
+    @Override
+    public void close() {
+        closed = true;
+
+        bufferPool.close();
+
+        if (dictionarySession == null)
+            return;
+
+        if (Natives.BROTLI_ENCODER_DESTROY_PREPARED_DICTIONARY != null) {
+            try {
+                Natives.BROTLI_ENCODER_DESTROY_PREPARED_DICTIONARY.invokeExact(preparedDictionary);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+
+        dictionarySession.close();
+    }
+
     private enum BrotliEncoderParam {
         MODE,
         QUALITY
@@ -379,6 +495,180 @@ public final class BrotliCompressor implements MessageCodec.StringCompressor {
         NEEDS_MORE_OUTPUT
     }
 
+    // Holds the native bindings, so the library is only looked up once the first compressor is created.
+    private static final class Natives {
+
+        private static final MethodHandle BROTLI_ENCODER_CREATE_INSTANCE;
+        private static final MethodHandle BROTLI_ENCODER_SET_PARAMETER;
+        private static final MethodHandle BROTLI_ENCODER_COMPRESS_STREAM;
+        private static final MethodHandle BROTLI_ENCODER_IS_FINISHED;
+        private static final MethodHandle BROTLI_ENCODER_HAS_MORE_OUTPUT;
+        private static final MethodHandle BROTLI_ENCODER_TAKE_OUTPUT;
+        private static final MethodHandle BROTLI_ENCODER_DESTROY_INSTANCE;
+        private static final MethodHandle BROTLI_ENCODER_MAX_COMPRESSED_SIZE;
+        private static final MethodHandle BROTLI_ENCODER_COMPRESS;
+
+        // Custom dictionaries are only available since Brotli 1.1.0, so these handles are null on older libraries.
+        private static final MethodHandle BROTLI_ENCODER_PREPARE_DICTIONARY;
+        private static final MethodHandle BROTLI_ENCODER_ATTACH_PREPARED_DICTIONARY;
+        private static final MethodHandle BROTLI_ENCODER_DESTROY_PREPARED_DICTIONARY;
+        private static final MethodHandle BROTLI_DECODER_ATTACH_DICTIONARY;
+
+        private static final MethodHandle BROTLI_DECODER_CREATE_INSTANCE;
+        private static final MethodHandle BROTLI_DECODER_DECOMPRESS_STREAM;
+        private static final MethodHandle BROTLI_DECODER_HAS_MORE_OUTPUT;
+        private static final MethodHandle BROTLI_DECODER_TAKE_OUTPUT;
+        private static final MethodHandle BROTLI_DECODER_DESTROY_INSTANCE;
+        private static final MethodHandle BROTLI_DECODER_DECOMPRESS;
+
+        static {
+            NativeLibrary decoder = new NativeLibrary("brotlidec");
+            NativeLibrary encoder = new NativeLibrary("brotlienc");
+
+            // Encoder
+
+            BROTLI_ENCODER_CREATE_INSTANCE = encoder.downcall("BrotliEncoderCreateInstance", FunctionDescriptor.of(
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_ENCODER_SET_PARAMETER = encoder.downcall("BrotliEncoderSetParameter", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_INT
+            ));
+
+            BROTLI_ENCODER_COMPRESS_STREAM = encoder.downcall("BrotliEncoderCompressStream", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_ENCODER_TAKE_OUTPUT = encoder.downcall("BrotliEncoderTakeOutput", FunctionDescriptor.of(
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_ENCODER_IS_FINISHED = encoder.downcall("BrotliEncoderIsFinished", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_ENCODER_HAS_MORE_OUTPUT = encoder.downcall("BrotliEncoderHasMoreOutput", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_ENCODER_DESTROY_INSTANCE = encoder.downcall("BrotliEncoderDestroyInstance", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+
+            BROTLI_ENCODER_MAX_COMPRESSED_SIZE = encoder.downcall("BrotliEncoderMaxCompressedSize", FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.JAVA_LONG
+            ));
+
+            BROTLI_ENCODER_COMPRESS = encoder.downcall("BrotliEncoderCompress", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_ENCODER_PREPARE_DICTIONARY = encoder.downcallIfPresent("BrotliEncoderPrepareDictionary", FunctionDescriptor.of(
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_ENCODER_ATTACH_PREPARED_DICTIONARY = encoder.downcallIfPresent("BrotliEncoderAttachPreparedDictionary", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_ENCODER_DESTROY_PREPARED_DICTIONARY = encoder.downcallIfPresent("BrotliEncoderDestroyPreparedDictionary", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+
+            // Decoder
+
+            BROTLI_DECODER_CREATE_INSTANCE = decoder.downcall("BrotliDecoderCreateInstance", FunctionDescriptor.of(
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_DECODER_DECOMPRESS_STREAM = decoder.downcall("BrotliDecoderDecompressStream", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_DECODER_HAS_MORE_OUTPUT = decoder.downcall("BrotliDecoderHasMoreOutput", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_DECODER_TAKE_OUTPUT = decoder.downcall("BrotliDecoderTakeOutput", FunctionDescriptor.of(
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_DECODER_DESTROY_INSTANCE = decoder.downcall("BrotliDecoderDestroyInstance", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+
+            BROTLI_DECODER_DECOMPRESS = decoder.downcall("BrotliDecoderDecompress", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS
+            ));
+
+            BROTLI_DECODER_ATTACH_DICTIONARY = decoder.downcallIfPresent("BrotliDecoderAttachDictionary", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS
+            ));
+        }
+
+        private static void load() {}
+
+    }
+
+    // The struct the library reads sizes and positions from is reused along with the buffers.
+    private static final class ContextBuffers extends NativeBuffers {
+
+        private final NativeContext context = new NativeContext(getSession());
+
+        public NativeContext getContext() {
+            return context;
+        }
+
+    }
+
     private static final class NativeContext {
 
         private static final GroupLayout CONTEXT_STRUCT = MemoryLayout.structLayout(
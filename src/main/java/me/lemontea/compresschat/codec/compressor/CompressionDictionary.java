@@ -0,0 +1,30 @@
+package me.lemontea.compresschat.codec.compressor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class CompressionDictionary {
+
+    // A hand-assembled seed of chat and Minecraft phrases, not trained on a corpus, so it's bound to no compressor ID
+    // and only available to the benchmarks (src/jmh/resources). Dictionaries that ship are part of the wire format:
+    // train chat-v1 on a real corpus with trainChatDictionary, and never change it once shipped, add a new version instead.
+    public static final String CHAT_PROVISIONAL = "chat-provisional";
+
+    private static final String DICTIONARY_PATH = "/assets/compresschat/dictionaries/%s.dict";
+
+    private CompressionDictionary() {}
+
+    public static byte[] load(String name) {
+        String path = DICTIONARY_PATH.formatted(name);
+
+        try (InputStream in = CompressionDictionary.class.getResourceAsStream(path)) {
+            if (in == null)
+                throw new IllegalStateException("Missing compression dictionary " + name + "!");
+
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load compression dictionary " + name + "!", e);
+        }
+    }
+
+}
@@ -2,8 +2,11 @@ package me.lemontea.compresschat.codec.compressor;
 
 import me.lemontea.compresschat.codec.MessageCodec;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -12,60 +15,147 @@ public final class DeflateCompressor implements MessageCodec.StringCompressor {
 
     private static final int INITIAL_BUF_SIZE = 32;
 
-    private final Deflater deflater;
-    private final Inflater inflater;
+    // zlib's default level is 6.
+    private static final int[] LEVELS = { Deflater.BEST_SPEED, 6, Deflater.BEST_COMPRESSION };
+
+    private static final int MAX_POOLED_STREAMS = Runtime.getRuntime().availableProcessors();
+
+    // zlib's deflateBound() overhead for the default settings, including the zlib header, dictionary ID and trailer.
+    private static final int DEFLATE_BOUND_OVERHEAD = 17;
+
+    // zlib streams are not thread-safe, so every call borrows its own stream from a bounded pool.
+    private final BlockingQueue<Deflater> deflaterPool;
+    private final BlockingQueue<Inflater> inflaterPool;
+
+    private final byte[] dictionary;
+
+    private volatile boolean closed;
 
     public DeflateCompressor() {
-        deflater = new Deflater(Deflater.BEST_COMPRESSION);
-        inflater = new Inflater();
+        this(null);
+    }
+
+    public DeflateCompressor(byte[] dictionary) {
+        deflaterPool = new ArrayBlockingQueue<>(MAX_POOLED_STREAMS);
+        inflaterPool = new ArrayBlockingQueue<>(MAX_POOLED_STREAMS);
+
+        this.dictionary = dictionary;
     }
 
     @Override
-    public byte[] compress(String str) {
-        byte[] compressed = new byte[INITIAL_BUF_SIZE];
+    public int maxCompressedLength(int strLength) {
+        long dataLength = (long) strLength * MAX_UTF8_BYTES_PER_CHAR;
 
-        deflater.setInput(str.getBytes(StandardCharsets.UTF_8));
-        deflater.finish();
+        return Math.toIntExact(dataLength + (dataLength >> 12) + (dataLength >> 14) + (dataLength >> 25) + DEFLATE_BOUND_OVERHEAD);
+    }
 
-        int bytesRead = 0;
+    @Override
+    public int[] levels() {
+        return LEVELS.clone();
+    }
 
-        while (!deflater.finished()) {
-            if (bytesRead == compressed.length)
-                compressed = Arrays.copyOf(compressed, compressed.length + INITIAL_BUF_SIZE);
+    @Override
+    public int compress(String str, ByteBuffer output) {
+        return compress(str, output, Deflater.BEST_COMPRESSION);
+    }
 
-            bytesRead += deflater.deflate(compressed, bytesRead, compressed.length - bytesRead);
-        }
+    @Override
+    public int compress(String str, ByteBuffer output, int level) {
+        if (closed)
+            throw new IllegalStateException("Compressor is closed!");
+
+        Deflater deflater = deflaterPool.poll();
+
+        if (deflater == null)
+            deflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+        int startPosition = output.position();
 
-        deflater.reset();
+        try {
+            // Pooled deflaters keep the level of their last use, but it only applies from the next deflate() call.
+            deflater.setLevel(level);
 
-        return Arrays.copyOf(compressed, bytesRead);
+            if (dictionary != null)
+                deflater.setDictionary(dictionary);
+
+            deflater.setInput(str.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                if (!output.hasRemaining())
+                    throw new IllegalArgumentException("Output buffer is too small!");
+
+                deflater.deflate(output);
+            }
+        } finally {
+            deflater.reset();
+
+            if (closed || !deflaterPool.offer(deflater))
+                deflater.end();
+        }
+
+        return output.position() - startPosition;
     }
 
     @Override
-    public String decompress(byte[] data, int offset, int length) {
-        byte[] decompressed = new byte[INITIAL_BUF_SIZE];
+    public String decompress(ByteBuffer input) {
+        if (closed)
+            throw new IllegalStateException("Compressor is closed!");
 
-        inflater.setInput(data, offset, length);
+        Inflater inflater = inflaterPool.poll();
+
+        if (inflater == null)
+            inflater = new Inflater();
+
+        byte[] decompressed = new byte[INITIAL_BUF_SIZE];
 
         int bytesRead = 0;
 
-        while (!inflater.finished()) {
-            if (bytesRead == decompressed.length)
-                decompressed = Arrays.copyOf(decompressed, decompressed.length + INITIAL_BUF_SIZE);
+        try {
+            inflater.setInput(input);
+
+            while (!inflater.finished()) {
+                if (bytesRead == decompressed.length)
+                    decompressed = Arrays.copyOf(decompressed, Math.min(decompressed.length * 2, DECOMPRESSION_SIZE_LIMIT + 1));
+
+                try {
+                    bytesRead += inflater.inflate(decompressed, bytesRead, decompressed.length - bytesRead);
+                } catch (DataFormatException e) {
+                    throw new IllegalArgumentException("Unable to decompress contents!", e);
+                }
+
+                if (inflater.needsDictionary()) {
+                    if (dictionary == null)
+                        throw new IllegalArgumentException("Unexpected dictionary!");
+
+                    // Throws if the stream was compressed against a different dictionary (Adler-32 mismatch).
+                    inflater.setDictionary(dictionary);
+                } else if (!inflater.finished() && inflater.needsInput() && bytesRead < decompressed.length) {
+                    throw new IllegalArgumentException("Truncated contents!");
+                }
 
-            try {
-                bytesRead += inflater.inflate(decompressed, bytesRead, decompressed.length - bytesRead);
-            } catch (DataFormatException e) {
-                throw new IllegalArgumentException("Unable to decompress contents!", e);
+                if (bytesRead > DECOMPRESSION_SIZE_LIMIT)
+                    throw new IllegalArgumentException("Message is too long!");
             }
+        } finally {
+            inflater.reset();
 
-            if (bytesRead > DECOMPRESSION_SIZE_LIMIT)
-                throw new IllegalArgumentException("Message is too long!");
+            if (closed || !inflaterPool.offer(inflater))
+                inflater.end();
         }
 
-        inflater.reset();
+        return new String(decompressed, 0, bytesRead, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        for (Deflater deflater = deflaterPool.poll(); deflater != null; deflater = deflaterPool.poll())
+            deflater.end();
 
-        return new String(Arrays.copyOf(decompressed, bytesRead), StandardCharsets.UTF_8);
+        for (Inflater inflater = inflaterPool.poll(); inflater != null; inflater = inflaterPool.poll())
+            inflater.end();
     }
 
 }
@@ -0,0 +1,64 @@
+package me.lemontea.compresschat.codec.compressor;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+
+// Native input and output buffers of a native compressor, reused across calls and grown as needed.
+// Subclasses allocate any other native state they keep per set of buffers in getSession().
+class NativeBuffers implements AutoCloseable {
+
+    private static final int INITIAL_INPUT_SIZE = 1 << 10;
+    private static final int INITIAL_OUTPUT_SIZE = 1 << 10;
+
+    // Pooled buffers move between threads, hence the shared sessions.
+    private final MemorySession session = MemorySession.openShared();
+
+    private MemorySession buffersSession;
+
+    private MemorySegment input;
+    private MemorySegment output;
+
+    NativeBuffers() {
+        allocate(INITIAL_INPUT_SIZE, INITIAL_OUTPUT_SIZE);
+    }
+
+    private void allocate(long inputSize, long outputSize) {
+        buffersSession = MemorySession.openShared();
+
+        input = MemorySegment.allocateNative(inputSize, buffersSession);
+        output = MemorySegment.allocateNative(outputSize, buffersSession);
+    }
+
+    // Invalidates previously returned segments if the buffers have to grow.
+    final void reserve(long inputSize, long outputSize) {
+        if (inputSize <= input.byteSize() && outputSize <= output.byteSize())
+            return;
+
+        long newInputSize = (inputSize > input.byteSize()) ? Math.max(inputSize, input.byteSize() * 2) : input.byteSize();
+        long newOutputSize = (outputSize > output.byteSize()) ? Math.max(outputSize, output.byteSize() * 2) : output.byteSize();
+
+        buffersSession.close();
+
+        allocate(newInputSize, newOutputSize);
+    }
+
+    // Lives as long as the buffers, unlike the segments below.
+    final MemorySession getSession() {
+        return session;
+    }
+
+    final MemorySegment getInput(long size) {
+        return input.asSlice(0, size);
+    }
+
+    final MemorySegment getOutput(long size) {
+        return output.asSlice(0, size);
+    }
+
+    @Override
+    public void close() {
+        buffersSession.close();
+        session.close();
+    }
+
+}
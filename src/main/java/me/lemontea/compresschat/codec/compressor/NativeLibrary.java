@@ -0,0 +1,36 @@
+package me.lemontea.compresschat.codec.compressor;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySession;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.util.Optional;
+
+// Binds the functions of a shared library for the holder classes of the native compressors. Both the constructor
+// and downcall() throw if the library or function is missing, which fails the initialization of the holder class.
+final class NativeLibrary {
+
+    private final Linker linker = Linker.nativeLinker();
+
+    private final SymbolLookup lookup;
+
+    // Loaded for good, as the bindings live in static fields.
+    NativeLibrary(String name) {
+        lookup = SymbolLookup.libraryLookup(System.mapLibraryName(name), MemorySession.global());
+    }
+
+    MethodHandle downcall(String name, FunctionDescriptor descriptor) {
+        return find(name, descriptor).orElseThrow();
+    }
+
+    // For functions only newer versions of the library have.
+    MethodHandle downcallIfPresent(String name, FunctionDescriptor descriptor) {
+        return find(name, descriptor).orElse(null);
+    }
+
+    private Optional<MethodHandle> find(String name, FunctionDescriptor descriptor) {
+        return lookup.lookup(name).map(memorySegment -> linker.downcallHandle(memorySegment, descriptor));
+    }
+
+}
@@ -0,0 +1,48 @@
+package me.lemontea.compresschat.codec.compressor;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+// Keeps the native buffers of a compressor for the next calls, up to a set per processor.
+final class NativePool<T extends NativeBuffers> implements AutoCloseable {
+
+    private static final int MAX_POOLED_BUFFERS = Runtime.getRuntime().availableProcessors();
+
+    private final BlockingQueue<T> pool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    private final Supplier<T> factory;
+
+    private volatile boolean closed;
+
+    NativePool(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    T acquire() {
+        T buffers = pool.poll();
+
+        return (buffers != null) ? buffers : factory.get();
+    }
+
+    void release(T buffers) {
+        if (closed || !pool.offer(buffers)) {
+            buffers.close();
+
+            return;
+        }
+
+        // Released while the pool was being closed, after it was drained.
+        if (closed && pool.remove(buffers))
+            buffers.close();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        for (T buffers = pool.poll(); buffers != null; buffers = pool.poll())
+            buffers.close();
+    }
+
+}
@@ -0,0 +1,36 @@
+package me.lemontea.compresschat.codec.compressor;
+
+import me.lemontea.compresschat.codec.MessageCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Plain UTF-8, for parts that don't get any smaller when compressed.
+public final class StoredCompressor implements MessageCodec.StringCompressor {
+
+    @Override
+    public int maxCompressedLength(int strLength) {
+        return Math.multiplyExact(strLength, MAX_UTF8_BYTES_PER_CHAR);
+    }
+
+    @Override
+    public int compress(String str, ByteBuffer output) {
+        byte[] data = str.getBytes(StandardCharsets.UTF_8);
+
+        if (data.length > output.remaining())
+            throw new IllegalArgumentException("Output buffer is too small!");
+
+        output.put(data);
+
+        return data.length;
+    }
+
+    @Override
+    public String decompress(ByteBuffer input) {
+        if (input.remaining() > DECOMPRESSION_SIZE_LIMIT)
+            throw new IllegalArgumentException("Message is too long!");
+
+        return StandardCharsets.UTF_8.decode(input).toString();
+    }
+
+}
@@ -0,0 +1,354 @@
+package me.lemontea.compresschat.codec.compressor;
+
+import me.lemontea.compresschat.codec.MessageCodec;
+
+import java.lang.foreign.*;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public final class ZstdCompressor implements MessageCodec.StringCompressor {
+
+    // The strongest level that doesn't need the extra memory of the "ultra" levels.
+    private static final int ZSTD_MAX_LEVEL = 19;
+
+    private static final int[] LEVELS = { 3, 9, ZSTD_MAX_LEVEL };
+
+    private static final int ZSTD_C_COMPRESSION_LEVEL = 100;
+
+    private static final long ZSTD_CONTENTSIZE_UNKNOWN = -1;
+    private static final long ZSTD_CONTENTSIZE_ERROR = -2;
+
+    // Compression and decompression contexts are reusable, so they are pooled together with their native buffers.
+    private final NativePool<NativeContext> contextPool;
+
+    private volatile boolean closed;
+
+    public ZstdCompressor() {
+        this(null);
+    }
+
+    public ZstdCompressor(byte[] dictionary) {
+        if (!isAvailable())
+            throw new IllegalStateException("Zstd library is unavailable!");
+
+        contextPool = new NativePool<>(() -> new NativeContext(dictionary));
+    }
+
+    // False if libzstd is missing or lacks any of the functions below.
+    public static boolean isAvailable() {
+        try {
+            Natives.load();
+
+            return true;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int maxCompressedLength(int strLength) {
+        long maxCompressedSize = compressBound((long) strLength * MAX_UTF8_BYTES_PER_CHAR);
+
+        if (maxCompressedSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Message is too long!");
+
+        return (int) maxCompressedSize;
+    }
+
+    @Override
+    public int[] levels() {
+        return LEVELS.clone();
+    }
+
+    @Override
+    public int compress(String str, ByteBuffer output) {
+        return compress(str, output, ZSTD_MAX_LEVEL);
+    }
+
+    @Override
+    public int compress(String str, ByteBuffer output, int level) {
+        if (closed)
+            throw new IllegalStateException("Compressor is closed!");
+
+        byte[] data = str.getBytes(StandardCharsets.UTF_8);
+
+        long maxCompressedSize = compressBound(data.length);
+
+        NativeContext ctx = contextPool.acquire();
+
+        try {
+            ctx.reserve(data.length, maxCompressedSize);
+
+            MemorySegment dataBuf = ctx.getInput(data.length);
+            MemorySegment.copy(data, 0, dataBuf, ValueLayout.JAVA_BYTE, 0, data.length);
+
+            MemorySegment resultBuf = ctx.getOutput(maxCompressedSize);
+
+            checkResult((long) Natives.ZSTD_CCTX_SET_PARAMETER.invokeExact(
+                    ctx.getCompressionContext(),
+                    ZSTD_C_COMPRESSION_LEVEL,
+                    level
+            ));
+
+            long compressedLength = checkResult((long) Natives.ZSTD_COMPRESS2.invokeExact(
+                    ctx.getCompressionContext(),
+                    (Addressable) resultBuf,
+                    resultBuf.byteSize(),
+                    (Addressable) dataBuf,
+                    dataBuf.byteSize()
+            ));
+
+            if (compressedLength > output.remaining())
+                throw new IllegalStateException("Output buffer is too small!");
+
+            output.put(resultBuf.asSlice(0, compressedLength).asByteBuffer());
+
+            return (int) compressedLength;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to perform compression!", e);
+        } finally {
+            contextPool.release(ctx);
+        }
+    }
+
+    @Override
+    public String decompress(ByteBuffer input) {
+        if (closed)
+            throw new IllegalStateException("Compressor is closed!");
+
+        NativeContext ctx = contextPool.acquire();
+
+        try {
+            ctx.reserve(input.remaining(), DECOMPRESSION_SIZE_LIMIT);
+
+            MemorySegment dataBuf = ctx.getInput(input.remaining());
+            dataBuf.asByteBuffer().put(input);
+
+            long contentSize = (long) Natives.ZSTD_GET_FRAME_CONTENT_SIZE.invokeExact((Addressable) dataBuf, dataBuf.byteSize());
+
+            // Checked before anything is decompressed, so an oversized frame costs nothing beyond its header.
+            if (contentSize == ZSTD_CONTENTSIZE_UNKNOWN || contentSize == ZSTD_CONTENTSIZE_ERROR)
+                throw new IllegalArgumentException("Malformed data!");
+
+            if (Long.compareUnsigned(contentSize, DECOMPRESSION_SIZE_LIMIT) > 0)
+                throw new IllegalArgumentException("Message is too long!");
+
+            MemorySegment resultBuf = ctx.getOutput(contentSize);
+
+            // Fails with dstSize_tooSmall if further frames follow, so the limit holds for the whole input.
+            long decompressedLength = (long) Natives.ZSTD_DECOMPRESS_DCTX.invokeExact(
+                    ctx.getDecompressionContext(),
+                    (Addressable) resultBuf,
+                    resultBuf.byteSize(),
+                    (Addressable) dataBuf,
+                    dataBuf.byteSize()
+            );
+
+            // With the output size known upfront, any error is down to the payload.
+            if ((int) Natives.ZSTD_IS_ERROR.invokeExact(decompressedLength) != 0 || decompressedLength != contentSize)
+                throw new IllegalArgumentException("Malformed data!");
+
+            return new String(resultBuf.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to perform decompression!", e);
+        } finally {
+            contextPool.release(ctx);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        contextPool.close();
+    }
+
+    private static long compressBound(long inputSize) {
+        try {
+            return (long) Natives.ZSTD_COMPRESS_BOUND.invokeExact(inputSize);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to compute compressed size bound!", e);
+        }
+    }
+
+    private static long checkResult(long result) throws Throwable {
+        if ((int) Natives.ZSTD_IS_ERROR.invokeExact(result) != 0) {
+            MemoryAddress errorName = (MemoryAddress) Natives.ZSTD_GET_ERROR_NAME.invokeExact(result);
+
+            throw new IllegalStateException(errorName.getUtf8String(0));
+        }
+
+        return result;
+    }
+
+    // Bound on first use, like the Brotli ones.
+    private static final class Natives {
+
+        private static final MethodHandle ZSTD_CREATE_CCTX;
+        private static final MethodHandle ZSTD_FREE_CCTX;
+        private static final MethodHandle ZSTD_CCTX_SET_PARAMETER;
+        private static final MethodHandle ZSTD_CCTX_LOAD_DICTIONARY;
+        private static final MethodHandle ZSTD_COMPRESS2;
+        private static final MethodHandle ZSTD_COMPRESS_BOUND;
+
+        private static final MethodHandle ZSTD_CREATE_DCTX;
+        private static final MethodHandle ZSTD_FREE_DCTX;
+        private static final MethodHandle ZSTD_DCTX_LOAD_DICTIONARY;
+        private static final MethodHandle ZSTD_DECOMPRESS_DCTX;
+        private static final MethodHandle ZSTD_GET_FRAME_CONTENT_SIZE;
+
+        private static final MethodHandle ZSTD_IS_ERROR;
+        private static final MethodHandle ZSTD_GET_ERROR_NAME;
+
+        static {
+            NativeLibrary zstd = new NativeLibrary("zstd");
+
+            // Compression
+
+            ZSTD_CREATE_CCTX = zstd.downcall("ZSTD_createCCtx", FunctionDescriptor.of(ValueLayout.ADDRESS));
+
+            ZSTD_FREE_CCTX = zstd.downcall("ZSTD_freeCCtx", FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS
+            ));
+
+            ZSTD_CCTX_SET_PARAMETER = zstd.downcall("ZSTD_CCtx_setParameter", FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_INT
+            ));
+
+            ZSTD_CCTX_LOAD_DICTIONARY = zstd.downcall("ZSTD_CCtx_loadDictionary", FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_LONG
+            ));
+
+            ZSTD_COMPRESS2 = zstd.downcall("ZSTD_compress2", FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_LONG
+            ));
+
+            ZSTD_COMPRESS_BOUND = zstd.downcall("ZSTD_compressBound", FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.JAVA_LONG
+            ));
+
+            // Decompression
+
+            ZSTD_CREATE_DCTX = zstd.downcall("ZSTD_createDCtx", FunctionDescriptor.of(ValueLayout.ADDRESS));
+
+            ZSTD_FREE_DCTX = zstd.downcall("ZSTD_freeDCtx", FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS
+            ));
+
+            ZSTD_DCTX_LOAD_DICTIONARY = zstd.downcall("ZSTD_DCtx_loadDictionary", FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_LONG
+            ));
+
+            ZSTD_DECOMPRESS_DCTX = zstd.downcall("ZSTD_decompressDCtx", FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_LONG
+            ));
+
+            ZSTD_GET_FRAME_CONTENT_SIZE = zstd.downcall("ZSTD_getFrameContentSize", FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG,
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_LONG
+            ));
+
+            // Errors
+
+            ZSTD_IS_ERROR = zstd.downcall("ZSTD_isError", FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_LONG
+            ));
+
+            ZSTD_GET_ERROR_NAME = zstd.downcall("ZSTD_getErrorName", FunctionDescriptor.of(
+                    ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_LONG
+            ));
+        }
+
+        private static void load() {}
+
+    }
+
+    private static final class NativeContext extends NativeBuffers {
+
+        private final MemoryAddress compressionContext;
+        private final MemoryAddress decompressionContext;
+
+        public NativeContext(byte[] dictionary) {
+            try {
+                compressionContext = (MemoryAddress) Natives.ZSTD_CREATE_CCTX.invokeExact();
+                decompressionContext = (MemoryAddress) Natives.ZSTD_CREATE_DCTX.invokeExact();
+
+                if (compressionContext.equals(MemoryAddress.NULL) || decompressionContext.equals(MemoryAddress.NULL))
+                    throw new IllegalStateException("Unable to initialize zstd!");
+
+                // Both contexts keep their own copy of the dictionary for every following frame.
+                if (dictionary != null) {
+                    MemorySegment dictionaryBuf = MemorySegment.allocateNative(dictionary.length, getSession());
+                    MemorySegment.copy(dictionary, 0, dictionaryBuf, ValueLayout.JAVA_BYTE, 0, dictionary.length);
+
+                    checkResult((long) Natives.ZSTD_CCTX_LOAD_DICTIONARY.invokeExact(
+                            (Addressable) compressionContext,
+                            (Addressable) dictionaryBuf,
+                            dictionaryBuf.byteSize()
+                    ));
+
+                    checkResult((long) Natives.ZSTD_DCTX_LOAD_DICTIONARY.invokeExact(
+                            (Addressable) decompressionContext,
+                            (Addressable) dictionaryBuf,
+                            dictionaryBuf.byteSize()
+                    ));
+                }
+            } catch (Throwable e) {
+                close();
+
+                throw new IllegalStateException("Unable to initialize zstd!", e);
+            }
+        }
+
+        public Addressable getCompressionContext() {
+            return compressionContext;
+        }
+
+        public Addressable getDecompressionContext() {
+            return decompressionContext;
+        }
+
+        @Override
+        public void close() {
+            try {
+                // Freeing NULL is a no-op.
+                long ignoredC = (long) Natives.ZSTD_FREE_CCTX.invokeExact((Addressable) compressionContext);
+                long ignoredD = (long) Natives.ZSTD_FREE_DCTX.invokeExact((Addressable) decompressionContext);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+
+            super.close();
+        }
+
+    }
+
+}
@@ -1,14 +1,30 @@
 package me.lemontea.compresschat.mixins;
 
+import me.lemontea.compresschat.CompressChatMod;
+import me.lemontea.compresschat.EncodedLengthEstimator;
+import me.lemontea.compresschat.codec.MessageCodec;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.font.TextRenderer;
+import net.minecraft.client.gui.DrawableHelper;
 import net.minecraft.client.gui.screen.ChatScreen;
+import net.minecraft.client.gui.widget.TextFieldWidget;
+import net.minecraft.client.util.math.MatrixStack;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.ModifyArg;
 import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 @Mixin(ChatScreen.class)
 public final class ChatScreenMixin {
 
+    @Shadow
+    protected TextFieldWidget chatField;
+
     @ModifyArg(method = "init", at = @At(value = "INVOKE", target = "Lnet/minecraft/client/gui/widget/TextFieldWidget;setMaxLength(I)V"))
     public int modifyChatWidth(int oldWidth) {
         return Integer.MAX_VALUE;
@@ -19,4 +35,36 @@ public final class ChatScreenMixin {
         return msg;
     }
 
+    // Shows what the draft will be encoded to, right above the end of the input box.
+    @Inject(method = "render", at = @At("TAIL"))
+    public void renderEncodedLength(MatrixStack matrices, int mouseX, int mouseY, float delta, CallbackInfo ci) {
+        EncodedLengthEstimator.Estimate estimate = CompressChatMod.ESTIMATOR.estimate(chatField.getText());
+
+        if (estimate == null)
+            return;
+
+        Text indicator;
+
+        if (estimate.failure() != null) {
+            indicator = Text.literal("!" + estimate.failure() + "!").formatted(Formatting.RED);
+        } else {
+            // Approximate until the background encode of the current draft is done.
+            String length = (estimate.exact() ? "" : "~") + estimate.length() + "/" + MessageCodec.MAX_MESSAGE_LENGTH;
+
+            indicator = Text.literal(length).formatted(estimate.fits() ? Formatting.GRAY : Formatting.RED);
+        }
+
+        ChatScreen screen = (ChatScreen) (Object) this;
+        TextRenderer textRenderer = MinecraftClient.getInstance().textRenderer;
+
+        DrawableHelper.drawTextWithShadow(
+                matrices,
+                textRenderer,
+                indicator,
+                screen.width - 2 - textRenderer.getWidth(indicator),
+                screen.height - 14 - textRenderer.fontHeight - 1,
+                0xFFFFFF
+        );
+    }
+
 }
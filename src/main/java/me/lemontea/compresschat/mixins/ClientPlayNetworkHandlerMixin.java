@@ -4,14 +4,49 @@ import me.lemontea.compresschat.CompressChatMod;
 import net.minecraft.client.network.ClientPlayNetworkHandler;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
-import org.spongepowered.asm.mixin.injection.ModifyVariable;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 @Mixin(ClientPlayNetworkHandler.class)
 public final class ClientPlayNetworkHandlerMixin {
 
-    @ModifyVariable(method = { "sendChatMessage", "sendChatCommand" }, at = @At("HEAD"), argsOnly = true)
-    public String encodeMessage(String msg) {
-        return CompressChatMod.CODEC.encodeMessage(msg);
+    private static final String CHAT_CONVERSATION = "chat";
+
+    @Inject(method = "sendChatMessage", at = @At("HEAD"), cancellable = true)
+    public void encodeMessage(String msg, CallbackInfo ci) {
+        ClientPlayNetworkHandler networkHandler = (ClientPlayNetworkHandler) (Object) this;
+
+        if (CompressChatMod.ENCODER.submit(msg, CHAT_CONVERSATION, networkHandler::sendChatMessage))
+            ci.cancel();
+    }
+
+    @Inject(method = "sendChatCommand", at = @At("HEAD"), cancellable = true)
+    public void encodeCommand(String command, CallbackInfo ci) {
+        if (CompressChatMod.COMMANDS.execute(command)) {
+            ci.cancel();
+
+            return;
+        }
+
+        ClientPlayNetworkHandler networkHandler = (ClientPlayNetworkHandler) (Object) this;
+
+        if (CompressChatMod.ENCODER.submit(command, commandConversation(command), networkHandler::sendChatCommand))
+            ci.cancel();
+    }
+
+    // Click events run commands through here, bypassing sendChatCommand.
+    @Inject(method = "sendCommand", at = @At("HEAD"), cancellable = true)
+    public void executeClickCommand(String command, CallbackInfoReturnable<Boolean> cir) {
+        if (CompressChatMod.COMMANDS.execute(command))
+            cir.setReturnValue(true);
+    }
+
+    // Commands like "msg Player $!...!$" get a stream per command and target, i.e. everything before the first part.
+    private static String commandConversation(String command) {
+        int partIdx = command.indexOf("$!");
+
+        return ((partIdx >= 0) ? command.substring(0, partIdx) : command).trim();
     }
 
 }
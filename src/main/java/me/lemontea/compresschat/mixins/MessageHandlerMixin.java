@@ -13,15 +13,19 @@ public final class MessageHandlerMixin {
 
     @ModifyVariable(method = { "onGameMessage", "onProfilelessMessage" }, at = @At("HEAD"), argsOnly = true)
     public Text decodeUnsignedMessage(Text msg) {
-        return Text.literal(CompressChatMod.CODEC.decodeMessage(msg.getString()));
+        return CompressChatMod.DECODER.decode(msg.getString());
     }
 
     @ModifyVariable(method = "onChatMessage", at = @At("HEAD"), argsOnly = true)
     public SignedMessage decodeSignedMessage(SignedMessage msg) {
         String origMsg = msg.getContent().getString();
-        String decoded = CompressChatMod.CODEC.decodeMessage(origMsg);
 
-        return origMsg.equals(decoded) ? msg : SignedMessage.ofUnsigned(msg.getSender(), decoded);
+        if (!CompressChatMod.CODEC.hasCompressedParts(origMsg))
+            return msg;
+
+        // Decoded contents are not covered by the signature, so the message is shown as unsigned.
+        return SignedMessage.ofUnsigned(msg.getSender(), origMsg)
+                .withUnsignedContent(CompressChatMod.DECODER.decode(origMsg, msg.getSender().toString()));
     }
 
 }
@@ -0,0 +1,23 @@
+package me.lemontea.compresschat.mixins;
+
+import me.lemontea.compresschat.CompressChatMod;
+import net.minecraft.client.MinecraftClient;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(MinecraftClient.class)
+public final class MinecraftClientMixin {
+
+    @Inject(method = "tick", at = @At("HEAD"))
+    public void tickDecoder(CallbackInfo ci) {
+        CompressChatMod.DECODER.onTick();
+    }
+
+    @Inject(method = "stop", at = @At("HEAD"))
+    public void releaseCodec(CallbackInfo ci) {
+        CompressChatMod.shutdown();
+    }
+
+}
@@ -0,0 +1,135 @@
+package me.lemontea.compresschat.codec;
+
+import me.lemontea.compresschat.codec.compressor.DeflateCompressor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+// Hammers one shared compressor and codec from many threads, which must give the same bytes as a single thread.
+class ConcurrentRoundTripTest {
+
+    private static final int THREADS = 8;
+    private static final int MESSAGES_PER_THREAD = 500;
+
+    private static final String[] WORDS = {
+            "hey", "anyone", "nether", "portal", "village", "diamonds", "lol", "gg", "base", "farm",
+            "creeper", "mending", "emeralds", "spawn", "привет", "こんにちは", "été", "64", "-1250"
+    };
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void deflateCompressorIsByteExactUnderContention() throws Exception {
+        try (DeflateCompressor compressor = new DeflateCompressor()) {
+            List<String> messages = messages(new Random(1), THREADS * MESSAGES_PER_THREAD, 4096);
+            List<byte[]> expected = new ArrayList<>(messages.size());
+
+            for (String message : messages)
+                expected.add(compressor.compress(message));
+
+            runConcurrently(thread -> {
+                for (int i = thread; i < messages.size(); i += THREADS) {
+                    byte[] compressed = compressor.compress(messages.get(i));
+
+                    assertArrayEquals(expected.get(i), compressed);
+                    assertArrayEquals(utf8(messages.get(i)), utf8(compressor.decompress(compressed, 0)));
+                }
+            });
+        }
+    }
+
+    @Test
+    void codecRoundTripsUnderContention() throws Exception {
+        try (MessageCodec codec = MessageCodec.createSingleCompressorCodec((byte) 1)) {
+            // Short enough to fit the message limit with a wire-safe alphabet.
+            List<String> messages = messages(new Random(2), THREADS * MESSAGES_PER_THREAD, 160);
+
+            runConcurrently(thread -> {
+                for (int i = thread; i < messages.size(); i += THREADS) {
+                    String message = messages.get(i);
+                    String encoded = codec.encodeMessage("a $!" + message + "!$ b");
+
+                    assertArrayEquals(utf8("a " + message + " b"), utf8(codec.decodeMessage(encoded)));
+                }
+            });
+        }
+    }
+
+    private void runConcurrently(ThreadTask task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>(THREADS);
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            int threadIdx = thread;
+
+            futures.add(executor.submit((Callable<Void>) () -> {
+                start.await();
+
+                task.run(threadIdx);
+
+                return null;
+            }));
+        }
+
+        start.countDown();
+
+        // Rethrows the first failed assertion of any thread.
+        for (Future<?> future : futures)
+            future.get(60, TimeUnit.SECONDS);
+    }
+
+    private static List<String> messages(Random random, int count, int maxLength) {
+        List<String> messages = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            int length = 1 + random.nextInt(maxLength);
+
+            StringBuilder message = new StringBuilder(length + 16);
+
+            while (message.length() < length)
+                message.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+
+            message.setLength(length);
+
+            messages.add(message.toString());
+        }
+
+        return messages;
+    }
+
+    private static byte[] utf8(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+
+        void run(int thread) throws Exception;
+
+    }
+
+}
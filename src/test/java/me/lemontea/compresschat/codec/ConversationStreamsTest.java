@@ -0,0 +1,53 @@
+package me.lemontea.compresschat.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConversationStreamsTest {
+
+    private static final int SPAMMED_STREAMS = 100;
+
+    @Test
+    void continuesAfterMessageTooLong() {
+        try (MessageCodec sender = MessageCodec.createCodec();
+             MessageCodec receiver = MessageCodec.createCodec()) {
+            assertEquals("first", receiver.decodeMessage(sender.encodeStreamMessage("$!first!$", "chat"), "alice"));
+
+            String tooLong = randomText(new Random(5), 4 * MessageCodec.MAX_MESSAGE_LENGTH);
+
+            assertThrows(IllegalArgumentException.class, () -> sender.encodeStreamMessage("$!" + tooLong + "!$", "chat"));
+
+            assertEquals("second", receiver.decodeMessage(sender.encodeStreamMessage("$!second!$", "chat"), "alice"));
+        }
+    }
+
+    @Test
+    void keepsOtherConversationsWhenOneOpensManyStreams() {
+        try (ConversationStreams alice = new ConversationStreams(null, 0);
+             ConversationStreams mallory = new ConversationStreams(null, 0);
+             ConversationStreams receiver = new ConversationStreams(null, 16 * (48 << 10))) {
+            assertEquals("first", receiver.decompress("alice", ByteBuffer.wrap(alice.compress("chat", "first"))));
+
+            // Every conversation of the sender starts another stream with a keyframe.
+            for (int i = 0; i < SPAMMED_STREAMS; i++)
+                assertEquals("spam", receiver.decompress("mallory", ByteBuffer.wrap(mallory.compress("c" + i, "spam"))));
+
+            assertEquals("second", receiver.decompress("alice", ByteBuffer.wrap(alice.compress("chat", "second"))));
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+
+        while (text.length() < length)
+            text.append((char) (0x4E00 + random.nextInt(0x5000)));
+
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,116 @@
+package me.lemontea.compresschat.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DecodeCacheTest {
+
+    @Test
+    void cachesFailuresWithoutMessage() {
+        DecodeCache cache = new DecodeCache(1 << 20);
+        AtomicInteger decodes = new AtomicInteger();
+
+        DecodeCache.Decoder decoder = encoded -> {
+            decodes.incrementAndGet();
+
+            throw new IllegalArgumentException();
+        };
+
+        for (int i = 0; i < 2; i++) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> cache.get("payload", decoder));
+
+            assertEquals("IllegalArgumentException", e.getMessage());
+        }
+
+        assertEquals(1, decodes.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void returnsCachedDecodes() {
+        DecodeCache cache = new DecodeCache(1 << 20);
+        AtomicInteger decodes = new AtomicInteger();
+
+        DecodeCache.Decoder decoder = encoded -> encoded + " " + decodes.incrementAndGet();
+
+        assertEquals("payload 1", cache.get("payload", decoder));
+        assertEquals("payload 1", cache.get("payload", decoder));
+        assertEquals("other 2", cache.get("other", decoder));
+    }
+
+    @Test
+    void decodesConcurrentMissesOnce() throws Exception {
+        DecodeCache cache = new DecodeCache(1 << 20);
+        AtomicInteger decodes = new AtomicInteger();
+
+        CountDownLatch decoding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        DecodeCache.Decoder decoder = encoded -> {
+            decodes.incrementAndGet();
+            decoding.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            return encoded + " decoded";
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<String>> results = new ArrayList<>();
+
+            results.add(executor.submit(() -> cache.get("payload", decoder)));
+
+            decoding.await();
+
+            for (int i = 0; i < 3; i++)
+                results.add(executor.submit(() -> cache.get("payload", decoder)));
+
+            // Lets the other callers reach the decode in flight first.
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<String> result : results)
+                assertEquals("payload decoded", result.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, decodes.get());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void doesNotCacheTransientFailures() {
+        DecodeCache cache = new DecodeCache(1 << 20);
+        AtomicInteger decodes = new AtomicInteger();
+
+        DecodeCache.Decoder decoder = encoded -> {
+            if (decodes.incrementAndGet() == 1)
+                throw new IllegalStateException("Compressor is unavailable!");
+
+            return encoded + " decoded";
+        };
+
+        assertThrows(IllegalStateException.class, () -> cache.get("payload", decoder));
+        assertEquals("payload decoded", cache.get("payload", decoder));
+        assertEquals(2, decodes.get());
+    }
+
+}
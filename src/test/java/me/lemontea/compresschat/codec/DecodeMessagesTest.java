@@ -0,0 +1,51 @@
+package me.lemontea.compresschat.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DecodeMessagesTest {
+
+    private static final int MESSAGES = 40;
+
+    @Test
+    void decodesInOrderWithTheirConversations() {
+        try (MessageCodec alice = MessageCodec.createCodec();
+             MessageCodec bob = MessageCodec.createCodec();
+             MessageCodec receiver = MessageCodec.createCodec()) {
+            List<MessageCodec.ReceivedMessage> received = new ArrayList<>(MESSAGES);
+            List<String> expected = new ArrayList<>(MESSAGES);
+
+            for (int i = 0; i < MESSAGES; i++) {
+                String msg = "message " + i + " about the nether portal near spawn";
+
+                // Both senders' streams interleave, mixed with parts compressed on their own.
+                String encoded = switch (i % 3) {
+                    case 0 -> alice.encodeStreamMessage("$!" + msg + "!$", "chat");
+                    case 1 -> bob.encodeStreamMessage("$!" + msg + "!$", "chat");
+                    default -> bob.encodeMessage("$!" + msg + "!$");
+                };
+
+                received.add(new MessageCodec.ReceivedMessage(encoded, (i % 3 == 0) ? "alice" : "bob"));
+                expected.add(msg);
+            }
+
+            List<String> decoded = new ArrayList<>(MESSAGES);
+
+            for (MessageCodec.DecodedMessage msg : receiver.decodeMessages(received))
+                decoded.add(msg.msg());
+
+            assertEquals(expected, decoded);
+
+            // The streams decoded in the batch are the ones live messages of the same senders continue.
+            String next = "one more message";
+
+            assertEquals(next, receiver.decodeMessage(alice.encodeStreamMessage("$!" + next + "!$", "chat"), "alice"));
+            assertEquals(next, receiver.decodeMessage(bob.encodeStreamMessage("$!" + next + "!$", "chat"), "bob"));
+        }
+    }
+
+}
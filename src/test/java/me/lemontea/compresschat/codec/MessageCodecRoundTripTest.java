@@ -0,0 +1,59 @@
+package me.lemontea.compresschat.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Round trips parts large enough for the block format, in every alphabet profile the codec picks.
+class MessageCodecRoundTripTest {
+
+    private static final int MESSAGES = 300;
+
+    private static final int MIN_LENGTH = 1 << 9;
+    private static final int MAX_LENGTH = 1 << 12;
+
+    @Test
+    void roundTripsLargeParts() {
+        Random random = new Random(3);
+
+        try (MessageCodec codec = MessageCodec.createSingleCompressorCodec((byte) 1)) {
+            for (int i = 0; i < MESSAGES; i++) {
+                String message = randomText(random, MIN_LENGTH + random.nextInt(MAX_LENGTH - MIN_LENGTH));
+
+                String encoded = codec.encodeMessage("a $!" + message + "!$ b");
+
+                assertEquals("a " + message + " b", codec.decodeMessage(encoded), "Message " + i);
+            }
+        }
+    }
+
+    @Test
+    void roundTripsSmallParts() {
+        Random random = new Random(4);
+
+        try (MessageCodec codec = MessageCodec.createSingleCompressorCodec((byte) 1)) {
+            for (int i = 0; i < MESSAGES; i++) {
+                String message = randomText(random, 1 + random.nextInt(MIN_LENGTH));
+
+                assertEquals(message, codec.decodeMessage(codec.encodeMessage("$!" + message + "!$")), "Message " + i);
+            }
+        }
+    }
+
+    // Mostly incompressible, so the payload stays about as large as the text.
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+
+        while (text.length() < length) {
+            char ch = (char) (random.nextBoolean() ? 0x21 + random.nextInt(0x5E) : 0x00A1 + random.nextInt(0xD000));
+
+            if (Character.isLetterOrDigit(ch))
+                text.append(ch);
+        }
+
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,115 @@
+package me.lemontea.compresschat.codec;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Checks the divide-and-conquer conversion against the digit-by-digit loops MessageCodec used before it.
+class RadixConverterTest {
+
+    private static final int[] PAYLOAD_LENGTHS = { 1, 2, 7, 8, 9, 31, 32, 33, 63, 64, 65, 100, 255, 256, 1000, 4096 };
+
+    @ParameterizedTest
+    @ValueSource(ints = { 2, 3, 10, 16, 94, 255, 256, 1919, 63_000, 65_535 })
+    void matchesBaselineLoops(int base) {
+        RadixConverter converter = new RadixConverter(base);
+        Random random = new Random(base);
+
+        for (int payloadLength : PAYLOAD_LENGTHS) {
+            for (int i = 0; i < 4; i++) {
+                BigInteger value = new BigInteger(1, randomPayload(random, payloadLength, i));
+
+                int[] expectedDigits = baselineToDigits(value, base);
+                int[] digits = converter.toDigits(value);
+
+                assertArrayEquals(expectedDigits, digits, "base " + base + ", " + payloadLength + " bytes");
+
+                assertEquals(baselineFromDigits(digits, base), converter.fromDigits(digits, 0, digits.length));
+                assertEquals(value, converter.fromDigits(digits, 0, digits.length));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 2, 94, 63_000 })
+    void convertsZero(int base) {
+        RadixConverter converter = new RadixConverter(base);
+
+        assertArrayEquals(new int[0], converter.toDigits(BigInteger.ZERO));
+        assertEquals(BigInteger.ZERO, converter.fromDigits(new int[0], 0, 0));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 2, 94, 63_000 })
+    void convertsDigitRanges(int base) {
+        RadixConverter converter = new RadixConverter(base);
+        Random random = new Random(base);
+
+        int[] digits = random.ints(300, 0, base).toArray();
+
+        for (int from = 0; from < digits.length; from += 37) {
+            for (int to = from; to <= digits.length; to += 41)
+                assertEquals(baselineFromDigits(Arrays.copyOfRange(digits, from, to), base), converter.fromDigits(digits, from, to));
+        }
+    }
+
+    // The kind of payloads the codec converts: a compressor ID byte, then data with some runs of equal bytes.
+    private static byte[] randomPayload(Random random, int length, int variant) {
+        byte[] payload = new byte[length];
+
+        random.nextBytes(payload);
+
+        switch (variant) {
+            case 1 -> Arrays.fill(payload, length / 2, length, (byte) 0);
+            case 2 -> Arrays.fill(payload, length / 2, length, (byte) 0xFF);
+            case 3 -> Arrays.fill(payload, 1, length, (byte) 0);
+            default -> {}
+        }
+
+        payload[0] = (byte) Math.max(1, payload[0] & 0xFF);
+
+        return payload;
+    }
+
+    private static int[] baselineToDigits(BigInteger value, int base) {
+        BigInteger bigBase = BigInteger.valueOf(base);
+
+        int[] digits = new int[0];
+        int length = 0;
+
+        while (!value.equals(BigInteger.ZERO)) {
+            BigInteger[] divisionResult = value.divideAndRemainder(bigBase);
+
+            if (length == digits.length)
+                digits = Arrays.copyOf(digits, Math.max(16, length * 2));
+
+            digits[length++] = divisionResult[1].intValueExact();
+
+            value = divisionResult[0];
+        }
+
+        return Arrays.copyOf(digits, length);
+    }
+
+    private static BigInteger baselineFromDigits(int[] digits, int base) {
+        BigInteger bigBase = BigInteger.valueOf(base);
+
+        BigInteger value = BigInteger.ZERO;
+        BigInteger k = BigInteger.ONE;
+
+        for (int digit : digits) {
+            value = value.add(k.multiply(BigInteger.valueOf(digit)));
+
+            k = k.multiply(bigBase);
+        }
+
+        return value;
+    }
+
+}
@@ -0,0 +1,173 @@
+package me.lemontea.compresschat.tools;
+
+import me.lemontea.compresschat.codec.LogHistogram;
+import me.lemontea.compresschat.codec.MessageCodec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Replays a chat corpus through the codec, once with every compressor on its own and once with the
+ * default adaptive selection, and reports the encoded size (in chars and in UTF-8 bytes on the wire),
+ * throughput and latency percentiles of each. Every message is sent as a single compressed part.
+ *
+ * Usage: CorpusReplay <corpus> [iterations]
+ */
+public final class CorpusReplay {
+
+    private static final String COMPRESSED_MSG_START = "$!";
+    private static final String COMPRESSED_MSG_END   = "!$";
+
+    private static final int DEFAULT_ITERATIONS = 5;
+
+    private CorpusReplay() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: CorpusReplay <corpus> [iterations]");
+            System.exit(1);
+        }
+
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        List<String> messages = new ArrayList<>();
+
+        // Messages containing the marks themselves can't be sent as a single part.
+        for (String message : DictionaryTrainer.readMessages(Path.of(args[0]))) {
+            if (!message.contains(COMPRESSED_MSG_START) && !message.contains(COMPRESSED_MSG_END))
+                messages.add(message);
+        }
+
+        if (messages.isEmpty())
+            throw new IllegalArgumentException("Corpus is empty!");
+
+        long corpusChars = 0;
+        long corpusBytes = 0;
+
+        for (String message : messages) {
+            corpusChars += message.length();
+            corpusBytes += message.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        System.out.printf("%d messages, %d chars, %d UTF-8 bytes, %d iterations%n%n", messages.size(), corpusChars, corpusBytes, iterations);
+
+        System.out.printf(
+                "%-10s %9s %9s %7s %7s %6s %10s %10s %11s %11s %11s %11s%n",
+                "compressor", "chars", "bytes", "chars%", "bytes%", "over", "enc MB/s", "dec MB/s",
+                "enc p50 us", "enc p99 us", "dec p50 us", "dec p99 us"
+        );
+
+        for (byte compressorId : MessageCodec.getCompressorIds()) {
+            try (MessageCodec encoder = MessageCodec.createSingleCompressorCodec(compressorId);
+                 MessageCodec decoder = MessageCodec.createSingleCompressorCodec(compressorId)) {
+                replay("#" + Byte.toUnsignedInt(compressorId), encoder, decoder, messages, corpusChars, corpusBytes, iterations);
+            }
+        }
+
+        try (MessageCodec encoder = MessageCodec.createCodec(); MessageCodec decoder = MessageCodec.createCodec()) {
+            replay("adaptive", encoder, decoder, messages, corpusChars, corpusBytes, iterations);
+        }
+    }
+
+    private static void replay(String name,
+                               MessageCodec encoder,
+                               MessageCodec decoder,
+                               List<String> messages,
+                               long corpusChars,
+                               long corpusBytes,
+                               int iterations) {
+        List<String> encoded = new ArrayList<>(messages.size());
+
+        try {
+            // Also warms up the compressors and the JIT before anything is measured.
+            for (String message : messages)
+                encoded.add(encoder.encodeMessage(COMPRESSED_MSG_START + message + COMPRESSED_MSG_END));
+        } catch (RuntimeException e) {
+            System.out.printf("%-10s unavailable: %s%n", name, e.getMessage());
+
+            return;
+        }
+
+        long encodedChars = 0;
+        long encodedBytes = 0;
+
+        int overLimit = 0;
+        int mismatches = 0;
+
+        for (int i = 0; i < messages.size(); i++) {
+            String msg = encoded.get(i);
+
+            encodedChars += msg.length();
+            encodedBytes += msg.getBytes(StandardCharsets.UTF_8).length;
+
+            if (msg.length() > MessageCodec.MAX_MESSAGE_LENGTH)
+                overLimit++;
+
+            if (!decoder.decodeMessage(msg).equals(messages.get(i)))
+                mismatches++;
+        }
+
+        LogHistogram encodeLatency = new LogHistogram();
+        LogHistogram decodeLatency = new LogHistogram();
+
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            for (String message : messages) {
+                String msg = COMPRESSED_MSG_START + message + COMPRESSED_MSG_END;
+
+                long startTime = System.nanoTime();
+
+                encoder.encodeMessage(msg);
+
+                long elapsed = System.nanoTime() - startTime;
+
+                encodeLatency.record(elapsed);
+                encodeNanos += elapsed;
+            }
+
+            // Otherwise every decode after the first pass would be a cache hit.
+            decoder.getDecodeCache().clear();
+
+            for (String msg : encoded) {
+                long startTime = System.nanoTime();
+
+                decoder.decodeMessage(msg);
+
+                long elapsed = System.nanoTime() - startTime;
+
+                decodeLatency.record(elapsed);
+                decodeNanos += elapsed;
+            }
+        }
+
+        System.out.printf(
+                "%-10s %9d %9d %6.1f%% %6.1f%% %6d %10.2f %10.2f %11.1f %11.1f %11.1f %11.1f%n",
+                name,
+                encodedChars,
+                encodedBytes,
+                100.0 * encodedChars / corpusChars,
+                100.0 * encodedBytes / corpusBytes,
+                overLimit,
+                megabytesPerSecond(corpusBytes * iterations, encodeNanos),
+                megabytesPerSecond(corpusBytes * iterations, decodeNanos),
+                encodeLatency.getPercentile(50) / 1000.0,
+                encodeLatency.getPercentile(99) / 1000.0,
+                decodeLatency.getPercentile(50) / 1000.0,
+                decodeLatency.getPercentile(99) / 1000.0
+        );
+
+        if (mismatches > 0)
+            System.out.printf("%-10s %d messages didn't decode back to the original!%n", name, mismatches);
+    }
+
+    // Throughput in MB of the original UTF-8 text per second.
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return (nanos > 0) ? bytes * 1000.0 / nanos : 0;
+    }
+
+}
@@ -0,0 +1,170 @@
+package me.lemontea.compresschat.tools;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Builds a raw compression dictionary from a chat corpus using a simplified COVER algorithm:
+ * the corpus is split into epochs, and from every epoch the segment covering the most
+ * frequent (and not yet covered) d-mers is kept. Best segments go to the end of the
+ * dictionary, where they are cheapest to reference.
+ *
+ * Usage: DictionaryTrainer <corpus> <output> [dictionary size]
+ */
+public final class DictionaryTrainer {
+
+    private static final String CHAT_LOG_MARKER = "[CHAT] ";
+
+    private static final int DEFAULT_DICTIONARY_SIZE = 1 << 13;
+
+    private static final int SEGMENT_SIZE = 32;
+    private static final int DMER_SIZE = 6;
+
+    private DictionaryTrainer() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: DictionaryTrainer <corpus> <output> [dictionary size]");
+            System.exit(1);
+        }
+
+        int dictionarySize = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_DICTIONARY_SIZE;
+
+        List<byte[]> samples = readSamples(Path.of(args[0]));
+
+        if (samples.isEmpty())
+            throw new IllegalArgumentException("Corpus is empty!");
+
+        byte[] dictionary = train(samples, dictionarySize);
+
+        Files.write(Path.of(args[1]), dictionary);
+
+        System.out.printf("Trained a %d byte dictionary from %d samples%n", dictionary.length, samples.size());
+    }
+
+    static List<byte[]> readSamples(Path corpus) throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+
+        for (String message : readMessages(corpus))
+            samples.add(message.getBytes(StandardCharsets.UTF_8));
+
+        return samples;
+    }
+
+    // Accepts both plain newline-delimited corpora and client logs (only "[CHAT] " lines are used).
+    static List<String> readMessages(Path corpus) throws IOException {
+        List<String> lines = Files.readAllLines(corpus, StandardCharsets.UTF_8);
+        boolean isLog = lines.stream().anyMatch(line -> line.contains(CHAT_LOG_MARKER));
+
+        List<String> messages = new ArrayList<>();
+
+        for (String line : lines) {
+            int markerIdx = line.indexOf(CHAT_LOG_MARKER);
+
+            if (isLog && markerIdx < 0)
+                continue;
+
+            String message = (markerIdx < 0) ? line.strip() : line.substring(markerIdx + CHAT_LOG_MARKER.length()).strip();
+
+            if (!message.isEmpty())
+                messages.add(message);
+        }
+
+        return messages;
+    }
+
+    static byte[] train(List<byte[]> samples, int dictionarySize) {
+        Map<Long, Integer> frequencies = new HashMap<>();
+
+        // Count each d-mer once per sample, so phrases shared by many messages win over one long spam line.
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+
+            for (int i = 0; i + DMER_SIZE <= sample.length; i++)
+                seen.add(dmer(sample, i));
+
+            for (Long key : seen)
+                frequencies.merge(key, 1, Integer::sum);
+        }
+
+        int epochs = Math.max(dictionarySize / SEGMENT_SIZE, 1);
+        int epochSize = Math.max(samples.size() / epochs, 1);
+
+        List<Segment> segments = new ArrayList<>();
+
+        for (int epochStart = 0; epochStart < samples.size(); epochStart += epochSize) {
+            Segment best = null;
+
+            for (byte[] sample : samples.subList(epochStart, Math.min(epochStart + epochSize, samples.size()))) {
+                for (int i = 0; i < sample.length; i += DMER_SIZE) {
+                    int end = Math.min(i + SEGMENT_SIZE, sample.length);
+
+                    long score = score(sample, i, end, frequencies);
+
+                    if (best == null || score > best.score())
+                        best = new Segment(sample, i, end, score);
+                }
+            }
+
+            if (best == null || best.score() == 0)
+                continue;
+
+            segments.add(best);
+
+            for (int i = best.from(); i + DMER_SIZE <= best.to(); i++)
+                frequencies.remove(dmer(best.sample(), i));
+        }
+
+        segments.sort(Comparator.comparingLong(Segment::score).reversed());
+
+        byte[] dictionary = new byte[dictionarySize];
+        int dictionaryStart = dictionarySize;
+
+        for (Segment segment : segments) {
+            int length = segment.to() - segment.from();
+
+            if (length > dictionaryStart)
+                break;
+
+            dictionaryStart -= length;
+
+            System.arraycopy(segment.sample(), segment.from(), dictionary, dictionaryStart, length);
+        }
+
+        byte[] result = new byte[dictionarySize - dictionaryStart];
+
+        System.arraycopy(dictionary, dictionaryStart, result, 0, result.length);
+
+        return result;
+    }
+
+    private static long score(byte[] sample, int from, int to, Map<Long, Integer> frequencies) {
+        long score = 0;
+
+        for (int i = from; i + DMER_SIZE <= to; i++)
+            score += frequencies.getOrDefault(dmer(sample, i), 0);
+
+        return score;
+    }
+
+    private static long dmer(byte[] data, int offset) {
+        long key = 0;
+
+        for (int i = 0; i < DMER_SIZE; i++)
+            key = (key << 8) | (data[offset + i] & 0xFF);
+
+        return key;
+    }
+
+    private record Segment(byte[] sample, int from, int to, long score) {}
+
+}